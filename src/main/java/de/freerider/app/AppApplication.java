@@ -27,7 +27,11 @@ public class AppApplication {
 
 	@EventListener(ApplicationReadyEvent.class)
 	public void runAfterSpringStartup() {
-		// runs when Spring is ready
+		// runs when Spring is ready, customers restored from the log are kept
+		if( customerRepository.count() > 0 ) {
+			System.out.println("repository<Customer> restored with: " + customerRepository.count() + " entries");
+			return;
+		}
 		customerRepository.save(new Customer()
 				.setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com")
 				.addContact("(030) 7000-640000")
@@ -0,0 +1,123 @@
+package de.freerider.datamodel;
+
+
+/**
+ * Kölner Phonetik (Cologne phonetics, H. J. Postel 1969), a phonetic code for
+ * German names. Names that sound alike have the same code, e.g.
+ * <pre>{@code
+ * name                               -> code
+ * - "Meyer", "Maier", "Mayer"        -> "67"
+ * - "Müller", "Mueller"              -> "657"
+ * - "Schulz-Müller", "Schulz-Mueller" -> "858657"
+ * }</pre>
+ * Letters are mapped to digits by their context, repeated digits are collapsed
+ * and vowels ("0") are kept only at the start. Umlauts are treated as their
+ * vowel, "ß" as "s", other characters (hyphens, spaces, digits) are skipped.
+ *
+ * Customer computes the codes of its names once when a name is set, see
+ * {@link Customer#getLastNamePhonetic()}.
+ */
+
+public final class ColognePhonetic {
+
+    private ColognePhonetic() { }
+
+
+    /**
+     * Return Kölner Phonetik code of s.
+     *
+     * @param s name to encode, may be null.
+     * @return code of digits 0-8, "" if s is null or has no letters.
+     */
+    public static String encode( String s ) {
+        if( s == null )
+            return "";
+        StringBuilder code = new StringBuilder( s.length() );
+        char last = 0;			// previous letter
+        char lastCode = '/';	// code of previous letter, '/' at the start
+        for( int i = 0; i < s.length(); i++ ) {
+            char ch = letter( s.charAt( i ) );
+            if( ch == 0 )
+                continue;
+            char next = i + 1 < s.length()? letter( s.charAt( i + 1 ) ) : 0;
+            char c;
+            switch( ch ) {
+            case 'A': case 'E': case 'I': case 'J': case 'O': case 'U': case 'Y':
+                c = '0';
+                break;
+            case 'B':
+                c = '1';
+                break;
+            case 'P':
+                c = next == 'H'? '3' : '1';
+                break;
+            case 'D': case 'T':
+                c = next == 'C' || next == 'S' || next == 'Z'? '8' : '2';
+                break;
+            case 'F': case 'V': case 'W':
+                c = '3';
+                break;
+            case 'G': case 'K': case 'Q':
+                c = '4';
+                break;
+            case 'C':
+                if( lastCode == '/' ) {
+                    c = "AHKLOQRUX".indexOf( next ) >= 0? '4' : '8';
+                } else {
+                    c = last != 'S' && last != 'Z' && "AHKOQUX".indexOf( next ) >= 0? '4' : '8';
+                }
+                break;
+            case 'X':
+                if( last != 'C' && last != 'K' && last != 'Q' && lastCode != '4' ) {
+                    code.append( '4' );		// "48", the '4' collapses with a preceding '4'
+                }
+                c = '8';
+                break;
+            case 'L':
+                c = '5';
+                break;
+            case 'M': case 'N':
+                c = '6';
+                break;
+            case 'R':
+                c = '7';
+                break;
+            case 'S': case 'Z':
+                c = '8';
+                break;
+            default:			// 'H'
+                c = '-';
+            }
+            if( c != '-' && c != lastCode && ( c != '0' || lastCode == '/' ) ) {
+                code.append( c );
+            }
+            last = ch;
+            lastCode = c;
+        }
+        return code.toString();
+    }
+
+
+    /**
+     * Map character to upper-case letter A-Z, 0 if it is not a letter.
+     */
+    private static char letter( char ch ) {
+        if( ch >= 'A' && ch <= 'Z' )
+            return ch;
+        if( ch >= 'a' && ch <= 'z' )
+            return (char)( ch - 'a' + 'A' );
+        switch( ch ) {
+        case '\u00e4': case '\u00c4':	// ä, Ä
+            return 'A';
+        case '\u00f6': case '\u00d6':	// ö, Ö
+            return 'O';
+        case '\u00fc': case '\u00dc':	// ü, Ü
+            return 'U';
+        case '\u00df':					// ß
+            return 'S';
+        default:
+            return 0;
+        }
+    }
+
+}
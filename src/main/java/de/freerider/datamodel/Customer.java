@@ -13,6 +13,11 @@ import java.util.*;
 
 public class Customer {
 
+    /**
+     * shared empty contacts array.
+     */
+    private static final String[] NO_CONTACTS = new String[ 0 ];
+
     /**
      * id attribute, {@code < 0} invalid, can be set only once.
      */
@@ -29,15 +34,29 @@ public class Customer {
     private String firstName = "";
 
     /**
-     * contact information with multiple contact entries.
+     * {@link ColognePhonetic} codes of lastName and firstName, computed when the
+     * name is set, never null.
+     */
+    private String lastNamePhonetic = "";
+
+    private String firstNamePhonetic = "";
+
+    /**
+     * contact information with multiple contact entries, right-sized and never
+     * modified in place: changes replace the array.
      */
-    private List<String> contacts = new ArrayList<String>();
+    private String[] contacts = NO_CONTACTS;
 
     /**
      * status information of a Customer.
      */
     private Status status = Status.New;
 
+    /**
+     * listener notified after name or status have changed, may be null.
+     */
+    private Listener listener = null;
+
 
     /**
      * Definition of Customer Status states.
@@ -51,12 +70,87 @@ public class Customer {
     };
 
 
+    /**
+     * Listener interface for observers that need to know when attributes of a
+     * Customer have changed, e.g. indexes of a repository. Methods are invoked
+     * after the change with the previous values.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked after first- or lastName have changed.
+         * 
+         * @param customer customer that has changed.
+         * @param oldFirstName previous firstName.
+         * @param oldLastName previous lastName.
+         */
+        default void nameChanged( Customer customer, String oldFirstName, String oldLastName ) { }
+
+        /**
+         * Invoked after status has changed.
+         * 
+         * @param customer customer that has changed.
+         * @param oldStatus previous status.
+         */
+        default void statusChanged( Customer customer, Status oldStatus ) { }
+
+        /**
+         * Invoked after a contact was added.
+         * 
+         * @param customer customer that has changed.
+         * @param contact contact that was added.
+         */
+        default void contactAdded( Customer customer, String contact ) { }
+
+        /**
+         * Invoked after a contact was removed.
+         * 
+         * @param customer customer that has changed.
+         * @param contact contact that was removed.
+         */
+        default void contactRemoved( Customer customer, String contact ) { }
+
+        /**
+         * Return pool of compact storage mode through which names and contacts
+         * set while the listener is registered are canonicalized.
+         * 
+         * @return pool used for names and contacts, null stores them as passed.
+         */
+        default StringPool stringPool() { return null; }
+    }
+
+
     /**
      * Default constructor
      */
     public Customer() { }
 
 
+    /**
+     * Canonicalize names, their phonetic codes and contacts through pool so that
+     * values repeated across customers share one String instance (compact storage
+     * mode). Values remain equal, listeners are not notified. Values set later are
+     * canonicalized through the pool of the listener, see {@link Listener#stringPool()}.
+     * 
+     * @param pool pool used for names and contacts.
+     * @return chainable self-reference.
+     */
+    public Customer compact( StringPool pool ) {
+    	firstName = pool.canonical( firstName );
+    	lastName = pool.canonical( lastName );
+    	firstNamePhonetic = pool.canonical( firstNamePhonetic );
+    	lastNamePhonetic = pool.canonical( lastNamePhonetic );
+    	if( contacts.length > 0 ) {
+    		String[] pooled = new String[ contacts.length ];
+    		for( int i = 0; i < pooled.length; i++ ) {
+    			pooled[ i ] = pool.canonical( contacts[ i ] );
+    		}
+    		contacts = pooled;
+    	}
+    	return this;
+    }
+
+
     /**
      * Id getter.
      * 
@@ -112,6 +206,27 @@ public class Customer {
     }
 
 
+    /**
+     * Return phonetic code of lastName (Kölner Phonetik), equal for names that
+     * sound alike such as "Meyer" and "Maier".
+     * 
+     * @return code computed when lastName was set, "" for an empty lastName.
+     */
+    public String getLastNamePhonetic() {
+    	return lastNamePhonetic;
+    }
+
+
+    /**
+     * Return phonetic code of firstName (Kölner Phonetik).
+     * 
+     * @return code computed when firstName was set, "" for an empty firstName.
+     */
+    public String getFirstNamePhonetic() {
+    	return firstNamePhonetic;
+    }
+
+
     /**
      * Setter that splits single-String name (e.g. "Eric Meyer") into first-
      * and lastName parts and assigns parts to corresponding first- and
@@ -135,8 +250,20 @@ public class Customer {
      * @return chainable self-reference.
      */
     public Customer setName( String first, String last ) {
-    	this.firstName = first != null? first.trim() : this.firstName;
-		this.lastName = last != null? last.trim() : this.lastName;
+    	String oldFirst = this.firstName;
+    	String oldLast = this.lastName;
+    	this.firstName = first != null? canonical( first.trim() ) : this.firstName;
+		this.lastName = last != null? canonical( last.trim() ) : this.lastName;
+		// phonetic codes are computed once per change, lookups only compare them
+		if( ! oldFirst.equals( firstName ) ) {
+			firstNamePhonetic = canonical( ColognePhonetic.encode( firstName ) );
+		}
+		if( ! oldLast.equals( lastName ) ) {
+			lastNamePhonetic = canonical( ColognePhonetic.encode( lastName ) );
+		}
+		if( listener != null && ! ( oldFirst.equals( firstName ) && oldLast.equals( lastName ) ) ) {
+			listener.nameChanged( this, oldFirst, oldLast );
+		}
 		return this;
     }
 
@@ -147,17 +274,18 @@ public class Customer {
      * @return number of contacts.
      */
     public int contactsCount() {
-    	return contacts.size();
+    	return contacts.length;
     }
 
 
     /**
      * Contacts getter (as {@code Iterable<String>}).
      * 
-     * @return contacts as {@code Iterable<String>}.
+     * @return unmodifiable view of current contacts as {@code Iterable<String>},
+     * not affected by later changes of contacts.
      */
     public Iterable<String> getContacts() {
-    	return contacts;
+    	return Collections.unmodifiableList( Arrays.asList( contacts ) );
     }
 
 
@@ -172,8 +300,14 @@ public class Customer {
     	if( contact != null && contact.length() > 0 ) {
 			contact = contact.trim();
 			// avoid duplicate entries
-			if( ! contacts.contains( contact ) ) {
-				contacts.add( contact );
+			if( ! Arrays.asList( contacts ).contains( contact ) ) {
+				contact = canonical( contact );
+				String[] added = Arrays.copyOf( contacts, contacts.length + 1 );
+				added[ contacts.length ] = contact;
+				contacts = added;
+				if( listener != null ) {
+					listener.contactAdded( this, contact );
+				}
 			}
 		}
 		return this;
@@ -187,17 +321,30 @@ public class Customer {
      * @param i index of contact to delete.
      */
     public void deleteContact( int i ) {
-    	if( i >= 0 && i < contacts.size() ) {
-			contacts.remove( i );
+    	if( i >= 0 && i < contacts.length ) {
+			String removed = contacts[ i ];
+			String[] remaining = contacts.length == 1? NO_CONTACTS : new String[ contacts.length - 1 ];
+			System.arraycopy( contacts, 0, remaining, 0, i );
+			System.arraycopy( contacts, i + 1, remaining, i, contacts.length - i - 1 );
+			contacts = remaining;
+			if( listener != null ) {
+				listener.contactRemoved( this, removed );
+			}
 		}
     }
 
 
     /**
-     * Delete all contacts.
+     * Delete all contacts. A listener is notified after each contact was
+     * removed, last contact first, and sees one contact less each time.
      */
     public void deleteAllContacts() {
-    	contacts.clear();
+    	if( listener == null ) {
+    		contacts = NO_CONTACTS;
+    	}
+    	while( contacts.length > 0 ) {
+    		deleteContact( contacts.length - 1 );
+    	}
     }
 
 
@@ -218,7 +365,34 @@ public class Customer {
      * @return chainable self-reference.
      */
     public Customer setStatus( Customer.Status status ) {
+        Status oldStatus = this.status;
         this.status = status;
+        if( listener != null && oldStatus != status ) {
+            listener.statusChanged( this, oldStatus );
+        }
+        return this;
+    }
+
+
+    /**
+     * Listener getter.
+     * 
+     * @return listener notified of changes, null if none is set.
+     */
+    public Listener getListener() {
+        return listener;
+    }
+
+
+    /**
+     * Listener setter. A Customer has at most one listener, which is usually
+     * the repository holding the Customer.
+     * 
+     * @param listener listener notified of changes, null removes the listener.
+     * @return chainable self-reference.
+     */
+    public Customer setListener( Listener listener ) {
+        this.listener = listener;
         return this;
     }
 
@@ -227,6 +401,14 @@ public class Customer {
 	 * private methods
 	 */
 
+	/**
+	 * Canonicalize s through the pool of the listener in compact storage mode.
+	 */
+	private String canonical( String s ) {
+		StringPool pool = listener != null? listener.stringPool() : null;
+		return pool != null? pool.canonical( s ) : s;
+	}
+
 	/**
 	 * Split single-String name into first- and last name.
 	 * Examples:<pre>{@code
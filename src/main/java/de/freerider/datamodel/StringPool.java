@@ -0,0 +1,59 @@
+package de.freerider.datamodel;
+
+
+/**
+ * Lossy pool that canonicalizes equal Strings to one shared instance, used by
+ * Customer in compact storage mode for names and contacts that repeat across
+ * customers such as common first names, surnames or company phone numbers.
+ *
+ * The pool is a fixed-size array indexed by String hash. A String equal to the
+ * one in its slot is replaced by the pooled instance, otherwise it takes the slot.
+ * Frequent values are therefore mostly found in their slot, unique values (e.g.
+ * e-mail addresses) may evict them but never grow the pool.
+ *
+ * The pool is thread-safe without locking: slots are written racily, which is
+ * safe since Strings are immutable. A lost update only costs a missed
+ * deduplication.
+ */
+
+public final class StringPool {
+
+    private final String[] strings;
+
+    private final int mask;
+
+
+    /**
+     * Constructor.
+     *
+     * @param size number of slots, rounded up to a power of two.
+     */
+    public StringPool( int size ) {
+        if( size < 1 )
+            throw new IllegalArgumentException( "size must be positive" );
+        int slots = Integer.highestOneBit( Math.max( 1, size - 1 ) ) << 1;
+        this.strings = new String[ slots ];
+        this.mask = slots - 1;
+    }
+
+
+    /**
+     * Return pooled instance equal to s and pool s if there is none.
+     *
+     * @param s String to canonicalize, may be null.
+     * @return pooled String equal to s, s itself if it was not pooled, null if s is null.
+     */
+    public String canonical( String s ) {
+        if( s == null )
+            return null;
+        //
+        int h = s.hashCode();
+        int slot = ( h ^ ( h >>> 16 ) ) & mask;
+        String pooled = strings[ slot ];
+        if( s.equals( pooled ) )
+            return pooled;
+        strings[ slot ] = s;
+        return s;
+    }
+
+}
@@ -0,0 +1,519 @@
+package de.freerider.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import de.freerider.datamodel.Customer;
+
+/**
+ * Repository of Customer objects stored as columns for very large datasets.
+ *
+ * Instead of one Customer object with two Strings and a list of contacts per
+ * customer, the repository keeps a primitive id column, a status byte column and
+ * a column of addresses into an {@link OffHeapArena} that holds names and contacts
+ * UTF-8 encoded in direct memory. The heap holds 17 bytes per customer plus the
+ * id hash table, which keeps the heap small and GC pauses short at millions of
+ * customers. Direct memory is limited by {@code -XX:MaxDirectMemorySize}.
+ *
+ * Customers are stored by value. Finders build Customer objects from the columns
+ * on demand, changes to returned customers take effect only when they are saved
+ * again. delete() deletes the customer stored under the id of the given customer.
+ *
+ * Lookups by id use a {@link LongHashTable} over the id column. findByStatus()
+ * scans the status column, the other finders scan the arena. Replaced and deleted
+ * customers leave garbage in the arena and holes in the columns, which are dropped
+ * when the columns are full or the garbage exceeds the live data.
+ *
+ * The repository is thread-safe, readers share a read lock, writers hold the
+ * exclusive lock. Unlike {@link CustomerRepository} it is not a Spring bean and
+ * does not notify listeners, it serves as an alternative backend of
+ * {@link CustomerCrudRepository} for read-mostly bulk data.
+ */
+public class ColumnarCustomerRepository implements CustomerCrudRepository {
+
+    /**
+     * status column value of deleted customers.
+     */
+    private static final byte DELETED = -2;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * arena garbage below this size is not compacted.
+     */
+    private static final long MIN_GARBAGE = 1 << 20;
+
+    /**
+     * hash table, id -> position in the columns.
+     */
+    private LongHashTable table;
+
+    private long[] ids;
+
+    /**
+     * status ordinals, -1 for null, DELETED for holes.
+     */
+    private byte[] statuses;
+
+    /**
+     * arena addresses of encoded names and contacts.
+     */
+    private long[] records;
+
+    private OffHeapArena arena;
+
+    /**
+     * number of used positions in the columns, including holes.
+     */
+    private int end = 0;
+
+    /**
+     * number of stored customers.
+     */
+    private int size = 0;
+
+    /**
+     * arena bytes of replaced and deleted customers.
+     */
+    private long garbage = 0;
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * highest id allocated or saved so far.
+     */
+    private final AtomicLong sequence = new AtomicLong(0);
+
+
+    /**
+     * Constructor of empty repository.
+     */
+    public ColumnarCustomerRepository() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Saves a copy of customer under its id. A customer already stored under the
+     * same id is replaced. A customer without id is assigned the next id of the
+     * sequence.
+     */
+    @Override
+    public <S extends Customer> S save(S entity) {
+        if(entity != null){
+            if(entity.getId() < 0){
+                entity.setId(nextId());
+            }
+            else{
+                sequence.accumulateAndGet(entity.getId(), Math::max);
+            }
+            byte status = CustomerCodec.status(entity.getStatus());
+            byte[] record = CustomerCodec.encodeAttributes(entity);
+            write(() -> {
+                put(entity.getId(), status, record);
+                return null;
+            });
+            return entity;
+        }
+        else{
+            throw new IllegalArgumentException("Customer must not be null");
+        }
+    }
+
+    /**
+     * Saves copies of all customers as one batch. The batch is validated and
+     * encoded before the write lock is acquired: it must not contain null or two
+     * different customers with the same id.
+     */
+    @Override
+    public <S extends Customer> Iterable<S> saveAll(Iterable<S> entities) {
+        if(entities != null){
+            List<S> batch = new ArrayList<S>();
+            LongIndexMap<Customer> batchIds = new LongIndexMap<Customer>();
+            long maxId = 0;
+            for(S entity : entities){
+                if(entity == null){
+                    throw new IllegalArgumentException("Customer must not be null");
+                }
+                if(entity.getId() >= 0){
+                    Customer other = batchIds.put(entity.getId(), entity);
+                    if(other != null && other != entity){
+                        throw new IllegalArgumentException("Duplicate customer id in batch: " + entity.getId());
+                    }
+                    maxId = Math.max(maxId, entity.getId());
+                }
+                batch.add(entity);
+            }
+            sequence.accumulateAndGet(maxId, Math::max);
+            byte[][] encoded = new byte[batch.size()][];
+            for(int i = 0; i < encoded.length; i++){
+                S entity = batch.get(i);
+                if(entity.getId() < 0){
+                    entity.setId(nextId());
+                }
+                encoded[i] = CustomerCodec.encodeAttributes(entity);
+            }
+            write(() -> {
+                for(int i = 0; i < encoded.length; i++){
+                    Customer entity = batch.get(i);
+                    put(entity.getId(), CustomerCodec.status(entity.getStatus()), encoded[i]);
+                }
+                return null;
+            });
+            return batch;
+        }
+        else{
+            throw new IllegalArgumentException("Customer must not be null");
+        }
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        if(id != null){
+            return read(() -> slotOf(id) >= 0);
+        }
+        else{
+            throw new IllegalArgumentException("ID must not be null");
+        }
+    }
+
+    @Override
+    public Optional<Customer> findById(Long id) {
+        if(id != null){
+            return Optional.ofNullable(read(() -> {
+                int slot = slotOf(id);
+                return slot >= 0 ? view(table.position(slot)) : null;
+            }));
+        }
+        else{
+            throw new IllegalArgumentException("ID must not be null");
+        }
+    }
+
+    @Override
+    public Iterable<Customer> findAll() {
+        return scan(customer -> true);
+    }
+
+    @Override
+    public Iterable<Customer> findAllById(Iterable<Long> ids) {
+        if(ids != null){
+            long[] batch = CustomerRepository.toIdArray(ids);
+            return read(() -> {
+                List<Customer> foundCustomers = new ArrayList<Customer>(batch.length);
+                for(long id : batch){
+                    int slot = slotOf(id);
+                    if(slot >= 0){
+                        foundCustomers.add(view(table.position(slot)));
+                    }
+                }
+                return foundCustomers;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("IDs must not be null");
+        }
+    }
+
+    @Override
+    public long count() {
+        return read(() -> size);
+    }
+
+    @Override
+    public void deleteById(Long id) {
+        if(id != null){
+            write(() -> remove(id));
+        }
+        else{
+            throw new IllegalArgumentException("ID must not be null");
+        }
+    }
+
+    @Override
+    public void delete(Customer entity) {
+        if(entity != null){
+            write(() -> remove(entity.getId()));
+        }
+        else{
+            throw new IllegalArgumentException("Customer must not be null");
+        }
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends Long> ids) {
+        if(ids != null){
+            long[] batch = CustomerRepository.toIdArray(ids);
+            write(() -> {
+                for(long id : batch){
+                    remove(id);
+                }
+                return null;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("IDs must not be null");
+        }
+    }
+
+    @Override
+    public void deleteAll(Iterable<? extends Customer> entities) {
+        if(entities != null){
+            List<Long> batch = new ArrayList<Long>();
+            for(Customer customer : entities){
+                if(customer != null){
+                    batch.add(customer.getId());
+                }
+                else{
+                    throw new IllegalArgumentException("Customer must not be null");
+                }
+            }
+            deleteAllById(batch);
+        }
+        else{
+            throw new IllegalArgumentException("Customers must not be null");
+        }
+    }
+
+    /**
+     * Deletes all customers and releases the arena.
+     */
+    @Override
+    public void deleteAll() {
+        write(() -> {
+            end = 0;
+            size = 0;
+            allocate(MIN_CAPACITY);
+            return null;
+        });
+    }
+
+    @Override
+    public Iterable<Customer> findByLastName(String lastName) {
+        if(lastName != null){
+            String key = CustomerRepository.normalizeName(lastName);
+            return scan(customer -> CustomerRepository.normalizeName(customer.getLastName()).equals(key));
+        }
+        else{
+            throw new IllegalArgumentException("lastName must not be null");
+        }
+    }
+
+    @Override
+    public Iterable<Customer> findByFirstName(String firstName) {
+        if(firstName != null){
+            String key = CustomerRepository.normalizeName(firstName);
+            return scan(customer -> CustomerRepository.normalizeName(customer.getFirstName()).equals(key));
+        }
+        else{
+            throw new IllegalArgumentException("firstName must not be null");
+        }
+    }
+
+    /**
+     * Finds customers by scanning the status column, only matching customers are
+     * built from the arena.
+     */
+    @Override
+    public Iterable<Customer> findByStatus(Customer.Status status) {
+        if(status != null){
+            byte code = CustomerCodec.status(status);
+            return read(() -> {
+                List<Customer> foundCustomers = new ArrayList<Customer>();
+                for(int pos = 0; pos < end; pos++){
+                    if(statuses[pos] == code){
+                        foundCustomers.add(view(pos));
+                    }
+                }
+                return foundCustomers;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("status must not be null");
+        }
+    }
+
+    @Override
+    public Iterable<Customer> findByContact(String contact) {
+        if(contact != null){
+            String key = CustomerRepository.normalizeContact(contact);
+            return scan(customer -> {
+                for(String c : customer.getContacts()){
+                    if(CustomerRepository.normalizeContact(c).equals(key)){
+                        return true;
+                    }
+                }
+                return false;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("contact must not be null");
+        }
+    }
+
+    @Override
+    public long nextId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * Return number of bytes the arena holds off-heap.
+     *
+     * @return allocated off-heap bytes.
+     */
+    public long offHeapBytes() {
+        return read(() -> arena.capacity());
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Store customer columns, replace the customer stored under id.
+     */
+    private void put(long id, byte status, byte[] record) {
+        int slot = slotOf(id);
+        if(slot >= 0){
+            int pos = table.position(slot);
+            garbage += arena.size(records[pos]);
+            statuses[pos] = status;
+            records[pos] = arena.append(record);
+            if(garbage > Math.max(MIN_GARBAGE, arena.used() - garbage)){
+                allocate(ids.length);
+            }
+            return;
+        }
+        if(end == ids.length){
+            // columns full: compact when at least a quarter are holes, otherwise grow
+            allocate(size <= (end - (end >> 2)) ? end : end << 1);
+            slot = slotOf(id);
+        }
+        int pos = end++;
+        ids[pos] = id;
+        statuses[pos] = status;
+        records[pos] = arena.append(record);
+        table.insert(slot, pos);
+        size++;
+    }
+
+    /**
+     * Remove customer with id, leaves a hole in the columns.
+     */
+    private Void remove(long id) {
+        int slot = slotOf(id);
+        if(slot >= 0){
+            int pos = table.position(slot);
+            garbage += arena.size(records[pos]);
+            statuses[pos] = DELETED;
+            size--;
+            table.remove(slot, ids);
+        }
+        return null;
+    }
+
+    /**
+     * Build customer from the columns at pos.
+     */
+    private Customer view(int pos) {
+        Customer customer = new Customer().setId(ids[pos]);
+        CustomerCodec.decodeAttributes(arena.get(records[pos]), customer);
+        return customer.setStatus(CustomerCodec.status(statuses[pos]));
+    }
+
+    /**
+     * Build stored customers in insertion order and return those matching filter.
+     */
+    private List<Customer> scan(Predicate<Customer> filter) {
+        return read(() -> {
+            List<Customer> foundCustomers = new ArrayList<Customer>();
+            for(int pos = 0; pos < end; pos++){
+                if(statuses[pos] != DELETED){
+                    Customer customer = view(pos);
+                    if(filter.test(customer)){
+                        foundCustomers.add(customer);
+                    }
+                }
+            }
+            return foundCustomers;
+        });
+    }
+
+    /**
+     * Find hash table slot of id.
+     *
+     * @return slot {@code >= 0} if id is stored, otherwise {@code -(free slot) - 1}.
+     */
+    private int slotOf(long id) {
+        return table.slotOf(id, ids);
+    }
+
+    /**
+     * Allocate columns, hash table and arena, move stored customers over in
+     * insertion order and drop holes and arena garbage.
+     *
+     * @param capacity new capacity of the columns.
+     */
+    private void allocate(int capacity) {
+        long[] oldIds = ids;
+        byte[] oldStatuses = statuses;
+        long[] oldRecords = records;
+        OffHeapArena oldArena = arena;
+        int oldEnd = end;
+        //
+        ids = new long[capacity];
+        statuses = new byte[capacity];
+        records = new long[capacity];
+        arena = new OffHeapArena();
+        table = new LongHashTable(capacity);
+        end = 0;
+        garbage = 0;
+        for(int i = 0; i < oldEnd; i++){
+            if(oldStatuses[i] != DELETED){
+                ids[end] = oldIds[i];
+                statuses[end] = oldStatuses[i];
+                records[end] = arena.copy(oldArena, oldRecords[i]);
+                table.add(oldIds[i], end++);
+            }
+        }
+    }
+
+    /**
+     * Run read operation under the shared read lock. Optimistic reads are not
+     * used since a torn read of the arena could decode garbage.
+     *
+     * @param op read operation.
+     * @return result of the read operation.
+     */
+    private <R> R read(Supplier<R> op) {
+        long stamp = lock.readLock();
+        try{
+            return op.get();
+        }
+        finally{
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Run write operation under the exclusive lock.
+     *
+     * @param op write operation.
+     * @return result of the write operation.
+     */
+    private <R> R write(Supplier<R> op) {
+        long stamp = lock.writeLock();
+        try{
+            return op.get();
+        }
+        finally{
+            lock.unlockWrite(stamp);
+        }
+    }
+
+}
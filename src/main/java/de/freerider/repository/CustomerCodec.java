@@ -0,0 +1,192 @@
+package de.freerider.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Compact binary encoding of Customer objects used by the write-ahead log
+ * and snapshots of the repository.
+ *
+ * Layout (integers big-endian, lengths as unsigned varints):
+ * <pre>{@code
+ * long    id
+ * byte    status ordinal, -1 if null
+ * varint  firstName length, UTF-8 bytes
+ * varint  lastName length, UTF-8 bytes
+ * varint  number of contacts
+ *         per contact: varint length, UTF-8 bytes
+ * }</pre>
+ * The attributes after id and status are also encoded on their own for stores
+ * that keep id and status in separate columns.
+ */
+
+final class CustomerCodec {
+
+    private static final Customer.Status[] STATUS = Customer.Status.values();
+
+
+    private CustomerCodec() { }
+
+
+    /**
+     * Encode customer.
+     *
+     * @param customer customer to encode.
+     * @return encoded customer.
+     */
+    static byte[] encode( Customer customer ) {
+        return encode( customer, true );
+    }
+
+
+    /**
+     * Encode names and contacts of customer without id and status.
+     *
+     * @param customer customer to encode.
+     * @return encoded attributes.
+     */
+    static byte[] encodeAttributes( Customer customer ) {
+        return encode( customer, false );
+    }
+
+
+    /**
+     * Decode customer at the position of buf and advance the position past it.
+     *
+     * @param buf buffer with encoded customer.
+     * @return decoded customer.
+     * @throws java.nio.BufferUnderflowException if buf ends within the customer.
+     */
+    static Customer decode( ByteBuffer buf ) {
+        Customer customer = new Customer().setId( buf.getLong() );
+        byte status = buf.get();
+        decodeAttributes( buf, customer );
+        return customer.setStatus( status( status ) );
+    }
+
+
+    /**
+     * Decode names and contacts encoded by {@link #encodeAttributes(Customer)}
+     * into customer.
+     *
+     * @param buf buffer with encoded attributes.
+     * @param customer customer that receives names and contacts.
+     * @return customer.
+     * @throws java.nio.BufferUnderflowException if buf ends within the attributes.
+     */
+    static Customer decodeAttributes( ByteBuffer buf, Customer customer ) {
+        String first = getString( buf );
+        String last = getString( buf );
+        customer.setName( first, last );
+        for( int n = getVarint( buf ); n > 0; n-- ) {
+            customer.addContact( getString( buf ) );
+        }
+        return customer;
+    }
+
+
+    /**
+     * Encode status as byte.
+     *
+     * @param status status, may be null.
+     * @return status ordinal, -1 if null.
+     */
+    static byte status( Customer.Status status ) {
+        return status != null? (byte)status.ordinal() : -1;
+    }
+
+
+    /**
+     * Decode status byte.
+     *
+     * @param status status ordinal.
+     * @return status, null if the byte is not an ordinal.
+     */
+    static Customer.Status status( byte status ) {
+        return status >= 0 && status < STATUS.length? STATUS[ status ] : null;
+    }
+
+
+    /*
+     * private methods
+     */
+
+    private static byte[] encode( Customer customer, boolean header ) {
+        byte[] first = customer.getFirstName().getBytes( StandardCharsets.UTF_8 );
+        byte[] last = customer.getLastName().getBytes( StandardCharsets.UTF_8 );
+        byte[][] contacts = new byte[ customer.contactsCount() ][];
+        int size = ( header? 8 + 1 : 0 ) + varintSize( first.length ) + first.length + varintSize( last.length ) + last.length;
+        int i = 0;
+        for( String contact : customer.getContacts() ) {
+            if( i == contacts.length )
+                break;	// contact added concurrently, encode the ones counted
+            contacts[ i ] = contact.getBytes( StandardCharsets.UTF_8 );
+            size += varintSize( contacts[ i ].length ) + contacts[ i ].length;
+            i++;
+        }
+        int count = i;
+        size += varintSize( count );
+        //
+        ByteBuffer buf = ByteBuffer.allocate( size );
+        if( header ) {
+            buf.putLong( customer.getId() );
+            buf.put( status( customer.getStatus() ) );
+        }
+        putBytes( buf, first );
+        putBytes( buf, last );
+        putVarint( buf, count );
+        for( i = 0; i < count; i++ ) {
+            putBytes( buf, contacts[ i ] );
+        }
+        return buf.array();
+    }
+
+    private static void putBytes( ByteBuffer buf, byte[] bytes ) {
+        putVarint( buf, bytes.length );
+        buf.put( bytes );
+    }
+
+    private static String getString( ByteBuffer buf ) {
+        int length = getVarint( buf );
+        if( buf.hasArray() ) {
+            String s = new String( buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8 );
+            buf.position( buf.position() + length );
+            return s;
+        }
+        byte[] bytes = new byte[ length ];
+        buf.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static void putVarint( ByteBuffer buf, int value ) {
+        while( ( value & ~0x7F ) != 0 ) {
+            buf.put( (byte)( ( value & 0x7F ) | 0x80 ) );
+            value >>>= 7;
+        }
+        buf.put( (byte)value );
+    }
+
+    private static int getVarint( ByteBuffer buf ) {
+        int value = 0;
+        for( int shift = 0; shift < 32; shift += 7 ) {
+            byte b = buf.get();
+            value |= ( b & 0x7F ) << shift;
+            if( b >= 0 )
+                return value;
+        }
+        throw new IllegalArgumentException( "malformed varint" );
+    }
+
+    private static int varintSize( int value ) {
+        int size = 1;
+        while( ( value & ~0x7F ) != 0 ) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,126 @@
+package de.freerider.repository;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Counters behind {@link CustomerStats}, updated by the repository when a
+ * customer is stored or removed and when the status or contacts of a stored
+ * customer change.
+ *
+ * Counters are {@link LongAdder}s: writers of different stripes of the
+ * repository update them concurrently without contending on one memory word,
+ * reads need no lock. Updates are applied with the write lock of the changed
+ * customer's stripe held, a snapshot taken by a validated optimistic read of
+ * all stripes is consistent across all counters.
+ */
+
+final class CustomerCounters {
+
+    private final LongAdder customers = new LongAdder();
+
+    /**
+     * customers per status, indexed by ordinal, customers without status last.
+     */
+    private final LongAdder[] statuses = adders( Customer.Status.values().length + 1 );
+
+    private final LongAdder contacts = new LongAdder();
+
+    /**
+     * customers per number of contacts, see {@link CustomerStats#bucket(int)}.
+     */
+    private final LongAdder[] contactsPerCustomer = adders( CustomerStats.CONTACT_BUCKETS );
+
+
+    /**
+     * Count stored customer.
+     *
+     * @param status   status of the customer, may be null.
+     * @param contacts number of contacts of the customer.
+     */
+    void add( Customer.Status status, int contacts ) {
+        customers.increment();
+        statuses[ slot( status ) ].increment();
+        this.contacts.add( contacts );
+        contactsPerCustomer[ CustomerStats.bucket( contacts ) ].increment();
+    }
+
+
+    /**
+     * Uncount removed customer.
+     *
+     * @param status   status of the customer when it was removed, may be null.
+     * @param contacts number of contacts of the customer when it was removed.
+     */
+    void remove( Customer.Status status, int contacts ) {
+        customers.decrement();
+        statuses[ slot( status ) ].decrement();
+        this.contacts.add( - contacts );
+        contactsPerCustomer[ CustomerStats.bucket( contacts ) ].decrement();
+    }
+
+
+    /**
+     * Move customer from one status to another.
+     *
+     * @param from previous status, may be null.
+     * @param to   current status, may be null.
+     */
+    void statusChanged( Customer.Status from, Customer.Status to ) {
+        statuses[ slot( from ) ].decrement();
+        statuses[ slot( to ) ].increment();
+    }
+
+
+    /**
+     * Move customer to another number of contacts.
+     *
+     * @param from previous number of contacts.
+     * @param to   current number of contacts.
+     */
+    void contactsChanged( int from, int to ) {
+        contacts.add( to - from );
+        contactsPerCustomer[ CustomerStats.bucket( from ) ].decrement();
+        contactsPerCustomer[ CustomerStats.bucket( to ) ].increment();
+    }
+
+
+    /**
+     * Return current values, O(1) in the number of customers.
+     *
+     * @return snapshot of the counters.
+     */
+    CustomerStats snapshot() {
+        Map<Customer.Status, Long> byStatus = new EnumMap<Customer.Status, Long>( Customer.Status.class );
+        for( Customer.Status status : Customer.Status.values() ) {
+            byStatus.put( status, statuses[ status.ordinal() ].sum() );
+        }
+        long[] distribution = new long[ contactsPerCustomer.length ];
+        for( int i = 0; i < distribution.length; i++ ) {
+            distribution[ i ] = contactsPerCustomer[ i ].sum();
+        }
+        return new CustomerStats( customers.sum(), byStatus, statuses[ slot( null ) ].sum(), contacts.sum(), distribution );
+    }
+
+
+    /**
+     * Slot of status in statuses, null has the last slot.
+     */
+    private static int slot( Customer.Status status ) {
+        return status != null? status.ordinal() : Customer.Status.values().length;
+    }
+
+
+    private static LongAdder[] adders( int n ) {
+        LongAdder[] adders = new LongAdder[ n ];
+        for( int i = 0; i < n; i++ ) {
+            adders[ i ] = new LongAdder();
+        }
+        return adders;
+    }
+
+}
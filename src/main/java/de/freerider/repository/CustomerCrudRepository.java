@@ -0,0 +1,71 @@
+package de.freerider.repository;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Extension of {@link CrudRepository} for Customer objects with queries that
+ * are answered from secondary indexes instead of scanning all customers.
+ *
+ * Indexes are kept consistent when customers are saved or deleted and when
+ * names or status of stored customers change.
+ */
+
+public interface CustomerCrudRepository extends CrudRepository<Customer, Long> {
+
+
+	/**
+	 * Returns all customers with the given lastName. Names are compared
+	 * ignoring case.
+	 *
+	 * @param lastName lastName to look up, must not be {@literal null}.
+	 * @return customers with lastName, empty if none found.
+	 * @throws IllegalArgumentException if {@literal lastName} is {@literal null}.
+	 */
+	Iterable<Customer> findByLastName( String lastName );
+
+
+	/**
+	 * Returns all customers with the given firstName. Names are compared
+	 * ignoring case.
+	 *
+	 * @param firstName firstName to look up, must not be {@literal null}.
+	 * @return customers with firstName, empty if none found.
+	 * @throws IllegalArgumentException if {@literal firstName} is {@literal null}.
+	 */
+	Iterable<Customer> findByFirstName( String firstName );
+
+
+	/**
+	 * Returns all customers with the given status.
+	 *
+	 * @param status status to look up, must not be {@literal null}.
+	 * @return customers with status, empty if none found.
+	 * @throws IllegalArgumentException if {@literal status} is {@literal null}.
+	 */
+	Iterable<Customer> findByStatus( Customer.Status status );
+
+
+	/**
+	 * Returns all customers with the given contact. Contacts are normalized
+	 * before comparison: case is ignored and phone numbers are compared by
+	 * their digits only, e.g. {@code "(030) 3481-23352"} matches {@code "030348123352"}.
+	 *
+	 * @param contact contact to look up, must not be {@literal null}.
+	 * @return customers with contact, empty if none found.
+	 * @throws IllegalArgumentException if {@literal contact} is {@literal null}.
+	 */
+	Iterable<Customer> findByContact( String contact );
+
+
+	/**
+	 * Allocates a new customer id from the repository's id sequence. Allocated ids
+	 * are unique and greater than the id of any customer saved before the call.
+	 * The sequence follows ids of customers saved with explicit ids, e.g. when
+	 * customers are loaded on startup.
+	 *
+	 * @return new customer id, {@code > 0}.
+	 */
+	long nextId();
+
+}
@@ -1,58 +1,629 @@
 package de.freerider.repository;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import de.freerider.datamodel.ColognePhonetic;
 import de.freerider.datamodel.Customer;
+import de.freerider.datamodel.StringPool;
 
+/**
+ * Repository of Customer objects indexed by their id.
+ *
+ * Customers are kept in a {@link LongIndexMap} keyed by the primitive customer id,
+ * which makes lookups, existence checks and deletes by id O(1) while findAll()
+ * still iterates customers in insertion order.
+ *
+ * The repository is thread-safe. Customers are partitioned by id into
+ * {@value #STRIPES} stripes, each with its own indexes and {@link StampedLock}.
+ * Writers lock only the stripes of the customers they change, writers of
+ * different stripes run in parallel. Reads by id are lock-free optimistic reads
+ * of the customer's stripe that fall back to a shared read lock only when a
+ * writer interfered. Queries over all customers lock all stripes in ascending
+ * order and see a consistent state. findAll() returns a snapshot that is safe
+ * to iterate while other threads modify the repository.
+ *
+ * Secondary indexes on lastName, firstName, status and contacts answer the queries
+ * of {@link CustomerCrudRepository}. The repository registers itself as listener
+ * of stored customers to keep the indexes consistent when names, status or contacts
+ * change.
+ *
+ * Phonetic indexes map the {@link ColognePhonetic} codes that customers keep
+ * for their names to customers, a lookup of names that sound alike ("Maier"
+ * for "Meyer") is one hash probe, see {@link #findByLastNamePhonetic(String)}.
+ *
+ * A {@link NameSearchIndex} over the distinct first and last names of all
+ * stripes finds customers by partial names, see {@link #search(String, int)}.
+ * Results of secondary indexes are in id order.
+ *
+ * Scans that test every customer run in parallel on a snapshot of the
+ * customers, see {@link #parallelStream()} and {@link #findAll(Predicate)}.
+ *
+ * Counters of customers per status and per number of contacts are updated
+ * with every change, {@link #stats()} reads them without visiting customers.
+ *
+ * An ordered id index serves pages of customers in id order for keyset
+ * pagination, see {@link #findPage(long, int)}.
+ *
+ * A global modification counter and per-customer versions tell clients whether
+ * data has changed, e.g. to answer conditional requests, see {@link #version()}
+ * and {@link #version(long)}.
+ *
+ * Ids of new customers are allocated lock-free from an {@link AtomicLong} sequence
+ * that is advanced past the id of every saved customer.
+ *
+ * Registered {@link Listener}s observe every change, e.g. to persist it.
+ */
 @Component
-public class CustomerRepository implements CrudRepository<Customer, Long> {
+public class CustomerRepository implements CustomerCrudRepository {
 
-    private List<Customer> customers = new ArrayList<Customer>();
+    /**
+     * contacts of digits, an optional leading '+' and these separators are phone
+     * numbers compared by digits only.
+     */
+    private static final String PHONE_SEPARATORS = " ()/.-";
 
+    /**
+     * separators of the words of a search query: whitespace and punctuation
+     * other than hyphens and apostrophes, which occur in names, e.g. "Meyer, Eric".
+     */
+    private static final Pattern SEARCH_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}'-]+");
+
+    /**
+     * Listener interface for observers of all changes made to the repository,
+     * including changes of stored customers. prepare(), saved() and deleted() are
+     * invoked while the stripes of the changed customers are locked, changes of
+     * one customer in the order they are applied, and must not call back into
+     * the repository. Changes of customers in different stripes are reported
+     * concurrently. committed() is invoked by the same thread after the locks
+     * were released and the changes succeeded.
+     */
+    public interface Listener {
+
+        /**
+         * Invoked before customers are saved or deleted through the repository,
+         * an exception rejects the operation before anything is changed. Not
+         * invoked for changes of stored customers, which are already applied
+         * when the repository is notified.
+         */
+        default void prepare() { }
+
+        /**
+         * Invoked when customer was saved or a stored customer has changed.
+         *
+         * @param customer customer with its current attributes.
+         */
+        default void saved(Customer customer) { }
+
+        /**
+         * Invoked when the customer with id was deleted.
+         *
+         * @param id id of deleted customer.
+         */
+        default void deleted(long id) { }
+
+        /**
+         * Invoked when all customers were deleted.
+         */
+        default void cleared() { }
+
+        /**
+         * Invoked after changes reported to this thread were applied and the
+         * locks of the repository were released.
+         */
+        default void committed() { }
+    }
+
+    /**
+     * number of stripes, a power of two.
+     */
+    static final int STRIPES = 16;
+
+    private static final int STRIPE_BITS = Integer.numberOfTrailingZeros(STRIPES);
+
+    /**
+     * mask of all stripes for {@link #write(int, Supplier)} and {@link #read(int, Supplier)}.
+     */
+    private static final int ALL = (1 << STRIPES) - 1;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    /**
+     * pool of compact storage mode applied to stored customers, null when disabled.
+     */
+    private final StringPool stringPool;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * distinct names of all stripes, guarded by namesLock.
+     */
+    private final NameSearchIndex names = new NameSearchIndex();
+
+    /**
+     * name -> number of stripes with customers of that name, guarded by namesLock.
+     */
+    private final Map<String, Integer> nameStripes = new HashMap<String, Integer>();
+
+    /**
+     * serializes changes of the search index by writers of different stripes,
+     * taken after stripe locks. Readers of the search index hold all stripes.
+     */
+    private final ReentrantLock namesLock = new ReentrantLock();
+
+    private final CustomerCounters counters = new CustomerCounters();
+
+    /**
+     * number of modifications, advanced by writers of all stripes.
+     */
+    private final AtomicLong modifications = new AtomicLong(0);
+
+    /**
+     * number of customers inserted so far, orders customers of all stripes by insertion.
+     */
+    private final AtomicLong insertions = new AtomicLong(0);
+
+    /**
+     * highest id allocated or saved so far.
+     */
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    /**
+     * Customer found by search() with its score and the order in which it was
+     * found, which breaks ties.
+     */
+    private static final class SearchHit {
+        static final Comparator<SearchHit> WORST_FIRST = Comparator.<SearchHit>comparingInt(hit -> hit.score)
+                .thenComparing(Comparator.<SearchHit>comparingInt(hit -> hit.rank).reversed());
+
+        final Customer customer;
+        final int score;
+        final int rank;
+
+        SearchHit(Customer customer, int score, int rank) {
+            this.customer = customer;
+            this.score = score;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Partition of the customers whose ids hash to the same stripe, with the
+     * indexes of these customers and the lock that guards them.
+     */
+    private final class Stripe {
+
+        final StampedLock lock = new StampedLock();
+
+        final LongIndexMap<Customer> customers = new LongIndexMap<Customer>();
+
+        /**
+         * id -> value of insertions when the customer was inserted, merges
+         * stripes in insertion order.
+         */
+        final LongIndexMap<Long> positions = new LongIndexMap<Long>();
+
+        /**
+         * customers ordered by id for keyset pagination.
+         */
+        final TreeMap<Long, Customer> orderedIds = new TreeMap<Long, Customer>();
+
+        final SecondaryIndex<String> lastNames =
+                new SecondaryIndex<String>(new HashMap<>(), CustomerRepository::normalizeName);
+
+        final SecondaryIndex<String> firstNames =
+                new SecondaryIndex<String>(new HashMap<>(), CustomerRepository::normalizeName);
+
+        /**
+         * indexes of phonetic codes of names, keys are precomputed codes.
+         */
+        final SecondaryIndex<String> lastNamePhonetics = new SecondaryIndex<String>(new HashMap<>(), code -> code);
+
+        final SecondaryIndex<String> firstNamePhonetics = new SecondaryIndex<String>(new HashMap<>(), code -> code);
+
+        final SecondaryIndex<Customer.Status> statuses =
+                new SecondaryIndex<Customer.Status>(new EnumMap<>(Customer.Status.class), status -> status);
+
+        final SecondaryIndex<String> contacts =
+                new SecondaryIndex<String>(new HashMap<>(), CustomerRepository::normalizeContact);
+
+        /**
+         * names of customers of this stripe that are counted in nameStripes.
+         */
+        final Set<String> names = new HashSet<String>();
+
+        /**
+         * id -> value of the modification counter when the customer last changed.
+         */
+        final LongIndexMap<Long> versions = new LongIndexMap<Long>();
+
+        final int mask;
+
+        /**
+         * Listener registered with stored customers, updates indexes after changes.
+         * Old keys are always removed since the customer may have been deleted
+         * between the change and the notification. For the same reason counters
+         * are always moved: a customer detached after the change was uncounted with
+         * its new values, moving it from the old to the new values balances that.
+         */
+        final Customer.Listener indexUpdater = new Customer.Listener() {
+
+            @Override
+            public StringPool stringPool() {
+                return stringPool;
+            }
+
+            @Override
+            public void nameChanged(Customer customer, String oldFirstName, String oldLastName) {
+                write(mask, () -> {
+                    lastNames.remove(oldLastName, customer);
+                    firstNames.remove(oldFirstName, customer);
+                    // codes of the old names are not kept by the customer
+                    lastNamePhonetics.remove(phoneticKey(ColognePhonetic.encode(oldLastName)), customer);
+                    firstNamePhonetics.remove(phoneticKey(ColognePhonetic.encode(oldFirstName)), customer);
+                    if(isStored(customer)){
+                        lastNames.add(customer.getLastName(), customer);
+                        firstNames.add(customer.getFirstName(), customer);
+                        lastNamePhonetics.add(phoneticKey(customer.getLastNamePhonetic()), customer);
+                        firstNamePhonetics.add(phoneticKey(customer.getFirstNamePhonetic()), customer);
+                        notifySaved(customer);
+                    }
+                    indexNames(oldFirstName, oldLastName);
+                    indexNames(customer.getFirstName(), customer.getLastName());
+                    return null;
+                });
+            }
+
+            @Override
+            public void statusChanged(Customer customer, Customer.Status oldStatus) {
+                write(mask, () -> {
+                    statuses.remove(oldStatus, customer);
+                    counters.statusChanged(oldStatus, customer.getStatus());
+                    if(isStored(customer)){
+                        statuses.add(customer.getStatus(), customer);
+                        notifySaved(customer);
+                    }
+                    return null;
+                });
+            }
+
+            @Override
+            public void contactAdded(Customer customer, String contact) {
+                write(mask, () -> {
+                    int count = customer.contactsCount();
+                    counters.contactsChanged(count - 1, count);
+                    if(isStored(customer)){
+                        contacts.add(contact, customer);
+                        notifySaved(customer);
+                    }
+                    return null;
+                });
+            }
+
+            @Override
+            public void contactRemoved(Customer customer, String contact) {
+                write(mask, () -> {
+                    int count = customer.contactsCount();
+                    counters.contactsChanged(count + 1, count);
+                    // keep customer indexed when another contact normalizes to the same key
+                    if(!hasContact(customer, contact)){
+                        contacts.remove(contact, customer);
+                    }
+                    if(isStored(customer)){
+                        notifySaved(customer);
+                    }
+                    return null;
+                });
+            }
+        };
+
+        Stripe(int index) {
+            this.mask = 1 << index;
+        }
+
+        /**
+         * Test whether customer is the instance stored under its id.
+         */
+        boolean isStored(Customer customer) {
+            return customers.get(customer.getId()) == customer;
+        }
+
+        /**
+         * Store customer in id index and secondary indexes.
+         */
+        Customer put(Customer customer) {
+            Customer previous = customers.put(customer.getId(), customer);
+            if(previous == null){
+                positions.put(customer.getId(), insertions.incrementAndGet());
+            }
+            orderedIds.put(customer.getId(), customer);
+            if(previous != customer){
+                if(previous != null){
+                    detach(previous);
+                }
+                attach(customer);
+            }
+            notifySaved(customer);
+            return previous;
+        }
+
+        /**
+         * Remove customer with id from id index and secondary indexes.
+         */
+        Customer remove(long id) {
+            Customer removed = customers.remove(id);
+            if(removed != null){
+                positions.remove(id);
+                orderedIds.remove(id);
+                versions.remove(id);
+                modifications.incrementAndGet();
+                detach(removed);
+                listeners.forEach(listener -> listener.deleted(id));
+            }
+            return removed;
+        }
+
+        /**
+         * Remove all customers of the stripe.
+         */
+        void clear() {
+            customers.forEach(this::detach);
+            customers.clear();
+            positions.clear();
+            orderedIds.clear();
+            versions.clear();
+        }
+
+        /**
+         * Add stored customer to secondary indexes and observe its changes.
+         */
+        void attach(Customer customer) {
+            if(stringPool != null){
+                customer.compact(stringPool);
+            }
+            lastNames.add(customer.getLastName(), customer);
+            firstNames.add(customer.getFirstName(), customer);
+            lastNamePhonetics.add(phoneticKey(customer.getLastNamePhonetic()), customer);
+            firstNamePhonetics.add(phoneticKey(customer.getFirstNamePhonetic()), customer);
+            statuses.add(customer.getStatus(), customer);
+            customer.getContacts().forEach(contact -> contacts.add(contact, customer));
+            counters.add(customer.getStatus(), customer.contactsCount());
+            indexNames(customer.getFirstName(), customer.getLastName());
+            customer.setListener(indexUpdater);
+        }
+
+        /**
+         * Remove customer from secondary indexes and stop observing its changes.
+         */
+        void detach(Customer customer) {
+            lastNames.remove(customer.getLastName(), customer);
+            firstNames.remove(customer.getFirstName(), customer);
+            lastNamePhonetics.remove(phoneticKey(customer.getLastNamePhonetic()), customer);
+            firstNamePhonetics.remove(phoneticKey(customer.getFirstNamePhonetic()), customer);
+            statuses.remove(customer.getStatus(), customer);
+            customer.getContacts().forEach(contact -> contacts.remove(contact, customer));
+            counters.remove(customer.getStatus(), customer.contactsCount());
+            indexNames(customer.getFirstName(), customer.getLastName());
+            if(customer.getListener() == indexUpdater){
+                customer.setListener(null);
+            }
+        }
+
+        /**
+         * Count names of the stripe while its customers have them as first or
+         * last name and uncount them otherwise. Derived from the name indexes,
+         * names that were never counted are not uncounted by mistake.
+         */
+        void indexNames(String... customerNames) {
+            for(String name : customerNames){
+                String term = normalizeName(name);
+                if(lastNames.count(term) + firstNames.count(term) > 0){
+                    if(names.add(term)){
+                        countName(term, 1);
+                    }
+                }
+                else if(names.remove(term)){
+                    countName(term, -1);
+                }
+            }
+        }
+
+        /**
+         * Advance the versions and notify listeners of a saved or changed customer.
+         */
+        void notifySaved(Customer customer) {
+            versions.put(customer.getId(), modifications.incrementAndGet());
+            listeners.forEach(listener -> listener.saved(customer));
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    public CustomerRepository() {
+        this(0);
+    }
+
+    /**
+     * Constructor used by Spring. A positive stringPool enables compact storage
+     * mode for customers stored in this repository, in which repeated names and
+     * contacts share one String, see {@link Customer#compact(StringPool)}.
+     *
+     * @param stringPool number of slots of the {@link StringPool}, 0 disables compact storage mode.
+     */
+    @Autowired
+    public CustomerRepository(@Value("${app.repository.string-pool:0}") int stringPool) {
+        this.stringPool = stringPool > 0 ? new StringPool(stringPool) : null;
+        for(int i = 0; i < STRIPES; i++){
+            stripes[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * Saves a customer under its id. A customer without id is assigned the next
+     * id of the sequence. Saving the stored instance again reports it to listeners
+     * as saved and changes nothing else.
+     *
+     * A different instance with the id of a stored customer replaces it, unlike
+     * {@link #insertAll(Iterable)}, which rejects taken ids. The new instance is
+     * indexed and observed, the replaced instance is detached: later changes of it
+     * no longer affect the repository. Replaying the write-ahead log relies on
+     * this, it saves decoded copies of customers that may already be stored.
+     */
     @Override
     public <S extends Customer> S save(S entity) {
         if(entity != null){
-            if(!this.customers.contains(entity)){
-                this.customers.add(entity);
-            }            
+            if(entity.getId() < 0){
+                entity.setId(nextId());
+            }
+            else{
+                sequence.accumulateAndGet(entity.getId(), Math::max);
+            }
+            Stripe stripe = stripe(entity.getId());
+            change(stripe.mask, () -> stripe.put(entity));
             return entity;
         }
         else{
             throw new IllegalArgumentException("Customer must not be null");
-        }        
+        }
     }
 
+    /**
+     * Saves all customers as one batch. The whole batch is validated before any
+     * customer is saved: it must not contain null or two different customers with
+     * the same id. Customers without id are assigned ids from the sequence, then
+     * the batch is applied with a single acquisition of the write locks of its
+     * stripes. Stored customers with the ids of the batch are replaced as by
+     * {@link #save(Customer)}.
+     */
     @Override
     public <S extends Customer> Iterable<S> saveAll(Iterable<S> entities) {
         if(entities != null){
+            List<S> batch = new ArrayList<S>();
+            LongIndexMap<Customer> batchIds = new LongIndexMap<Customer>();
+            long maxId = 0;
             for(S entity : entities){
-                if(entity != null){
-                    this.customers.add(entity);
-                }
-                else{
+                if(entity == null){
                     throw new IllegalArgumentException("Customer must not be null");
                 }
+                if(entity.getId() >= 0){
+                    Customer other = batchIds.put(entity.getId(), entity);
+                    if(other != null && other != entity){
+                        throw new IllegalArgumentException("Duplicate customer id in batch: " + entity.getId());
+                    }
+                    maxId = Math.max(maxId, entity.getId());
+                }
+                batch.add(entity);
+            }
+            sequence.accumulateAndGet(maxId, Math::max);
+            for(S entity : batch){
+                if(entity.getId() < 0){
+                    entity.setId(nextId());
+                }
             }
-            return entities;
+            int mask = 0;
+            for(S entity : batch){
+                mask |= stripe(entity.getId()).mask;
+            }
+            change(mask, () -> {
+                batch.forEach(entity -> stripe(entity.getId()).put(entity));
+                return null;
+            });
+            return batch;
         }
         else{
             throw new IllegalArgumentException("Customer must not be null");
         }
     }
 
+    /**
+     * Inserts customers whose ids are not stored yet as one batch. Ids are
+     * checked and customers inserted with a single acquisition of the write
+     * locks of the batch's stripes, of concurrent inserts of the same id only
+     * one succeeds. Customers
+     * without id are assigned ids from the sequence. Of customers with the
+     * same id in the batch only the first is inserted.
+     *
+     * @param entities customers to insert, must not contain null.
+     * @return ids of customers that were rejected because the id is taken, in batch order.
+     */
+    public <S extends Customer> List<Long> insertAll(Iterable<S> entities) {
+        if(entities != null){
+            List<S> batch = new ArrayList<S>();
+            long maxId = 0;
+            for(S entity : entities){
+                if(entity == null){
+                    throw new IllegalArgumentException("Customer must not be null");
+                }
+                maxId = Math.max(maxId, entity.getId());
+                batch.add(entity);
+            }
+            sequence.accumulateAndGet(maxId, Math::max);
+            for(S entity : batch){
+                if(entity.getId() < 0){
+                    entity.setId(nextId());
+                }
+            }
+            int mask = 0;
+            for(S entity : batch){
+                mask |= stripe(entity.getId()).mask;
+            }
+            return change(mask, () -> {
+                List<Long> rejected = new ArrayList<Long>();
+                for(S entity : batch){
+                    Stripe stripe = stripe(entity.getId());
+                    if(stripe.customers.containsKey(entity.getId())){
+                        rejected.add(entity.getId());
+                    }
+                    else{
+                        stripe.put(entity);
+                    }
+                }
+                return rejected;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("Customers must not be null");
+        }
+    }
+
     @Override
     public boolean existsById(Long id) {
         if(id != null){
-            for(Customer customer : this.customers){
-                if(customer.getId() == id){
-                    return true;
-                }
-            }
-            return false;
+            Stripe stripe = stripe(id);
+            return read(stripe.mask, () -> stripe.customers.containsKey(id));
         }
         else{
             throw new IllegalArgumentException("ID must not be null");
@@ -62,12 +633,8 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
     @Override
     public Optional<Customer> findById(Long id) {
         if(id != null){
-            for(Customer customer : this.customers){
-                if(customer.getId() == id){
-                    return Optional.of(customer); // weiß nicht ob das richtig ist
-                }
-            }
-            return Optional.empty();
+            Stripe stripe = stripe(id);
+            return Optional.ofNullable(read(stripe.mask, () -> stripe.customers.get(id)));
         }
         else{
             throw new IllegalArgumentException("ID must not be null");
@@ -76,26 +643,77 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
 
     @Override
     public Iterable<Customer> findAll() {
-        return this.customers;
+        return Arrays.asList(read(ALL, this::toArray));
+    }
+
+    /**
+     * Return sequential stream of the customers stored now in insertion order.
+     * The stream runs on a snapshot and is not affected by later changes.
+     *
+     * @return stream of customers.
+     */
+    public Stream<Customer> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Return parallel stream of the customers stored now, e.g. for scans
+     * that test every customer. The snapshot is copied into one array, its
+     * spliterator splits into halves for fork/join workers. No lock is held
+     * while the stream runs.
+     *
+     * @return parallel stream of customers.
+     */
+    public Stream<Customer> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Return customers matching predicate in insertion order, tested in
+     * parallel. For predicates that no index answers, e.g. contacts of a
+     * domain or names of a length.
+     *
+     * @param predicate condition tested on each customer, must be thread-safe.
+     * @return matching customers.
+     */
+    public List<Customer> findAll(Predicate<? super Customer> predicate) {
+        if(predicate != null){
+            return parallelStream().filter(predicate).collect(Collectors.toList());
+        }
+        else{
+            throw new IllegalArgumentException("Predicate must not be null");
+        }
+    }
+
+    /**
+     * Return number of customers matching predicate, tested in parallel.
+     *
+     * @param predicate condition tested on each customer, must be thread-safe.
+     * @return number of matching customers.
+     */
+    public long count(Predicate<? super Customer> predicate) {
+        if(predicate != null){
+            return parallelStream().filter(predicate).count();
+        }
+        else{
+            throw new IllegalArgumentException("Predicate must not be null");
+        }
     }
 
     @Override
     public Iterable<Customer> findAllById(Iterable<Long> ids) {
         if(ids != null){
-            List<Customer> foundCustomers = new ArrayList<Customer>();
-            for(Long id : ids){
-                if(id != null){
-                    for(Customer customer : this.customers){
-                        if(customer.getId() == id){
-                            foundCustomers.add(customer);
-                        }
+            long[] batch = toIdArray(ids);
+            return read(mask(batch), () -> {
+                List<Customer> foundCustomers = new ArrayList<Customer>(batch.length);
+                for(long id : batch){
+                    Customer customer = stripe(id).customers.get(id);
+                    if(customer != null){
+                        foundCustomers.add(customer);
                     }
                 }
-                else{
-                    throw new IllegalArgumentException("ID must not be null");
-                }
-            }
-            return foundCustomers;
+                return foundCustomers;
+            });
         }
         else{
             throw new IllegalArgumentException("IDs must not be null");
@@ -104,28 +722,35 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
 
     @Override
     public long count() {
-        return this.customers.size();
+        return read(ALL, () -> {
+            long count = 0;
+            for(Stripe stripe : stripes){
+                count += stripe.customers.size();
+            }
+            return count;
+        });
     }
 
     @Override
     public void deleteById(Long id) {
         if(id != null){
-            System.out.println("id: " + id);
-
-            Optional <Customer> customer = findById(id);
-            if(customer.isPresent()){
-                this.customers.remove(customer.get());
-            }
+            Stripe stripe = stripe(id);
+            change(stripe.mask, () -> stripe.remove(id));
         }
         else{
             throw new IllegalArgumentException("ID must not be null");
-        }        
+        }
     }
 
+    /**
+     * Deletes a customer. Only the stored instance is removed, another customer
+     * stored under the same id is left untouched.
+     */
     @Override
-    public void delete(Customer entity) { // das ist wahrscheinlich nicht richtig -> ich denke ich muss einen vergleich machen
+    public void delete(Customer entity) {
         if(entity != null){
-            this.customers.remove(entity);
+            Stripe stripe = stripe(entity.getId());
+            change(stripe.mask, () -> stripe.isStored(entity)? stripe.remove(entity.getId()) : null);
         }
         else{
             throw new IllegalArgumentException("Customer must not be null");
@@ -135,44 +760,775 @@ public class CustomerRepository implements CrudRepository<Customer, Long> {
     @Override
     public void deleteAllById(Iterable<? extends Long> ids) {
         if(ids != null){
-            for(Long id : ids){
-                if(id != null){
-                    for(Customer customer : this.customers){
-                        if(customer.getId() == id){
-                            this.customers.remove(customer);
-                        }
-                    }
-                }
-                else{
-                    throw new IllegalArgumentException("ID must not be null");
+            long[] batch = toIdArray(ids);
+            change(mask(batch), () -> {
+                for(long id : batch){
+                    stripe(id).remove(id);
                 }
-            }
+                return null;
+            });
         }
         else{
             throw new IllegalArgumentException("IDs must not be null");
-        }        
+        }
     }
 
     @Override
-    public void deleteAll(Iterable<? extends Customer> entities) { // das ist wahrscheinlich nicht richtig -> ich denke ich muss einen vergleich machen
+    public void deleteAll(Iterable<? extends Customer> entities) {
         if(entities != null){
+            List<Customer> batch = new ArrayList<Customer>();
             for(Customer customer : entities){
                 if(customer != null){
-                    this.customers.remove(customer);
+                    batch.add(customer);
                 }
                 else{
                     throw new IllegalArgumentException("Customer must not be null");
                 }
             }
+            int mask = 0;
+            for(Customer customer : batch){
+                mask |= stripe(customer.getId()).mask;
+            }
+            change(mask, () -> {
+                for(Customer customer : batch){
+                    Stripe stripe = stripe(customer.getId());
+                    if(stripe.isStored(customer)){
+                        stripe.remove(customer.getId());
+                    }
+                }
+                return null;
+            });
         }
         else{
             throw new IllegalArgumentException("Customers must not be null");
-        }        
+        }
     }
 
     @Override
     public void deleteAll() {
-        this.customers.clear();        
+        change(ALL, () -> {
+            for(Stripe stripe : stripes){
+                stripe.clear();
+            }
+            namesLock.lock();
+            try{
+                nameStripes.clear();
+                names.clear();
+            }
+            finally{
+                namesLock.unlock();
+            }
+            modifications.incrementAndGet();
+            listeners.forEach(Listener::cleared);
+            return null;
+        });
+    }
+
+    /**
+     * Return page of customers with ids greater than afterId in ascending id order.
+     * The next page starts after the id of the last customer of this page, which
+     * costs O(log n + limit) per stripe regardless of the page number. Pages stay stable while
+     * customers are inserted or deleted concurrently: no customer is returned twice
+     * and no customer that exists throughout the iteration is skipped.
+     *
+     * @param afterId id after which the page starts, -1 for the first page.
+     * @param limit maximum number of customers in the page.
+     * @return customers of the page.
+     */
+    public List<Customer> findPage(long afterId, int limit) {
+        if(limit > 0){
+            return readLocked(ALL, () -> {
+                List<Customer> page = new ArrayList<Customer>(Math.min(limit, 1024));
+                Iterator<Customer> customers = inIdOrder(stripe -> stripe.orderedIds.tailMap(afterId, false).values().iterator());
+                while(page.size() < limit && customers.hasNext()){
+                    page.add(customers.next());
+                }
+                return page;
+            });
+        }
+        else{
+            throw new IllegalArgumentException("limit must be positive");
+        }
+    }
+
+    /**
+     * Return highest id of stored customers, e.g. to bound an iteration with
+     * findPage() to the customers stored when it started.
+     *
+     * @return highest id of stored customers, -1 if the repository is empty.
+     */
+    public long lastId() {
+        return readLocked(ALL, () -> {
+            long lastId = -1L;
+            for(Stripe stripe : stripes){
+                if(!stripe.orderedIds.isEmpty()){
+                    lastId = Math.max(lastId, stripe.orderedIds.lastKey());
+                }
+            }
+            return lastId;
+        });
     }
-    
-} 
+
+    /**
+     * Return customers whose first or last names contain the words of query,
+     * e.g. "Schul" or "eric mey", as prefix or substring. Words shorter than three
+     * characters match name prefixes only. Customers are ranked by the sum of
+     * the word scores (exact name over name prefix over substring), ties by the
+     * shorter, then alphabetically first name matching the first word with the
+     * fewest matches, then by id.
+     *
+     * @param query words separated by whitespace or punctuation other than
+     *        hyphens and apostrophes, case is ignored.
+     * @param limit maximum number of customers returned.
+     * @return best matching customers, empty if query has no words.
+     */
+    public List<Customer> search(String query, int limit) {
+        if(query != null && limit > 0){
+            List<String> words = new ArrayList<String>();
+            for(String word : SEARCH_SEPARATORS.split(normalizeName(query))){
+                if(!word.isEmpty()){
+                    words.add(word);
+                }
+            }
+            return words.isEmpty()? new ArrayList<Customer>() : readLocked(ALL, () -> searchLocked(words, limit));
+        }
+        else{
+            throw new IllegalArgumentException("query must not be null and limit must be positive");
+        }
+    }
+
+    /**
+     * Register listener that observes all changes of the repository.
+     *
+     * @param listener listener to register.
+     */
+    public void addListener(Listener listener) {
+        if(listener != null){
+            listeners.add(listener);
+        }
+        else{
+            throw new IllegalArgumentException("Listener must not be null");
+        }
+    }
+
+    /**
+     * Unregister listener.
+     *
+     * @param listener listener to unregister.
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Run action while all stripes are locked for writing and return the
+     * customers stored at that moment, e.g. to switch log files consistently
+     * with a snapshot of the repository.
+     *
+     * @param whileLocked action run while no changes can be made.
+     * @return customers stored while the action ran.
+     */
+    Iterable<Customer> snapshot(Runnable whileLocked) {
+        return write(ALL, () -> {
+            whileLocked.run();
+            return Arrays.asList(toArray());
+        });
+    }
+
+    @Override
+    public Iterable<Customer> findByLastName(String lastName) {
+        if(lastName != null){
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.lastNames.iterator(lastName))));
+        }
+        else{
+            throw new IllegalArgumentException("lastName must not be null");
+        }
+    }
+
+    @Override
+    public Iterable<Customer> findByFirstName(String firstName) {
+        if(firstName != null){
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.firstNames.iterator(firstName))));
+        }
+        else{
+            throw new IllegalArgumentException("firstName must not be null");
+        }
+    }
+
+    /**
+     * Return customers whose lastName starts with prefix, ignoring case. The
+     * matching names are a range of the sorted names of the search index.
+     *
+     * @param prefix start of lastName.
+     * @return customers with lastName starting with prefix, grouped by name in alphabetical order, then in id order.
+     */
+    public List<Customer> findByLastNamePrefix(String prefix) {
+        if(prefix != null){
+            return readLocked(ALL, () -> findByPrefix(stripe -> stripe.lastNames, normalizeName(prefix)));
+        }
+        else{
+            throw new IllegalArgumentException("prefix must not be null");
+        }
+    }
+
+    /**
+     * Return customers whose firstName starts with prefix, ignoring case.
+     *
+     * @param prefix start of firstName.
+     * @return customers with firstName starting with prefix, grouped by name in alphabetical order, then in id order.
+     */
+    public List<Customer> findByFirstNamePrefix(String prefix) {
+        if(prefix != null){
+            return readLocked(ALL, () -> findByPrefix(stripe -> stripe.firstNames, normalizeName(prefix)));
+        }
+        else{
+            throw new IllegalArgumentException("prefix must not be null");
+        }
+    }
+
+    /**
+     * Return customers whose lastName sounds like lastName, e.g. "Meyer", "Maier"
+     * and "Mayer" or "Schulz-Müller" and "Schulz-Mueller". Only the code of
+     * lastName is computed, customers are found by their precomputed codes.
+     *
+     * @param lastName name to match phonetically.
+     * @return customers with the same {@link ColognePhonetic} code of lastName.
+     */
+    public Iterable<Customer> findByLastNamePhonetic(String lastName) {
+        if(lastName != null){
+            String key = phoneticKey(ColognePhonetic.encode(lastName));
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.lastNamePhonetics.iterator(key))));
+        }
+        else{
+            throw new IllegalArgumentException("lastName must not be null");
+        }
+    }
+
+    /**
+     * Return customers whose firstName sounds like firstName.
+     *
+     * @param firstName name to match phonetically.
+     * @return customers with the same {@link ColognePhonetic} code of firstName.
+     */
+    public Iterable<Customer> findByFirstNamePhonetic(String firstName) {
+        if(firstName != null){
+            String key = phoneticKey(ColognePhonetic.encode(firstName));
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.firstNamePhonetics.iterator(key))));
+        }
+        else{
+            throw new IllegalArgumentException("firstName must not be null");
+        }
+    }
+
+    @Override
+    public Iterable<Customer> findByStatus(Customer.Status status) {
+        if(status != null){
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.statuses.iterator(status))));
+        }
+        else{
+            throw new IllegalArgumentException("Status must not be null");
+        }
+    }
+
+    @Override
+    public long nextId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * Return global modification counter, which advances with every change of
+     * the repository or of a stored customer. Reading the counter before the
+     * data it describes labels the data at least as old as it is.
+     *
+     * @return modification counter.
+     */
+    public long version() {
+        return modifications.get();
+    }
+
+    /**
+     * Return number of customers per status and the distribution of contacts
+     * per customer. Counters are maintained with every change, the cost does
+     * not depend on the number of customers.
+     *
+     * @return consistent snapshot of the statistics.
+     */
+    public CustomerStats stats() {
+        return read(ALL, counters::snapshot);
+    }
+
+    /**
+     * Return version of customer with id, the value of the modification counter
+     * when the customer was last saved or changed.
+     *
+     * @param id id of customer.
+     * @return version of customer, -1 if no customer with id is stored.
+     */
+    public long version(long id) {
+        Stripe stripe = stripe(id);
+        Long version = read(stripe.mask, () -> stripe.versions.get(id));
+        return version != null ? version : -1;
+    }
+
+    @Override
+    public Iterable<Customer> findByContact(String contact) {
+        if(contact != null){
+            return readLocked(ALL, () -> toList(inIdOrder(stripe -> stripe.contacts.iterator(contact))));
+        }
+        else{
+            throw new IllegalArgumentException("Contact must not be null");
+        }
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Index of the stripe of id. The stripe is chosen by the high bits of the
+     * hash, the low bits place the id in the {@link LongIndexMap} of the stripe.
+     *
+     * @param id customer id.
+     * @return index of the stripe of id.
+     */
+    static int stripeOf(long id) {
+        return LongHashTable.hash(id) >>> (Integer.SIZE - STRIPE_BITS);
+    }
+
+    private Stripe stripe(long id) {
+        return stripes[stripeOf(id)];
+    }
+
+    /**
+     * Mask of the stripes of ids.
+     */
+    private int mask(long[] ids) {
+        int mask = 0;
+        for(long id : ids){
+            mask |= stripe(id).mask;
+        }
+        return mask;
+    }
+
+    /**
+     * Count name of a stripe, the search index holds the names of all stripes.
+     */
+    private void countName(String term, int delta) {
+        namesLock.lock();
+        try{
+            Integer count = nameStripes.merge(term, delta, (a, b) -> a + b == 0 ? null : a + b);
+            if(count == null){
+                names.remove(term);
+            }
+            else if(count == 1 && delta > 0){
+                names.add(term);
+            }
+        }
+        finally{
+            namesLock.unlock();
+        }
+    }
+
+    /**
+     * Top-k search with all stripes locked. The word with the fewest matching
+     * customers drives the search, the other words are tested per candidate.
+     * Candidates are visited in rank order of the driver's terms, customers of
+     * a term in id order, ties keep the candidate found first. The search ends as soon as no further candidate can
+     * displace the k best hits, usually after the first k candidates.
+     */
+    private List<Customer> searchLocked(List<String> words, int limit) {
+        Map<String, Integer> driver = null;
+        long driverCount = Long.MAX_VALUE;
+        int bestSum = 0;
+        int driverBest = 0;
+        for(String word : words){
+            Map<String, Integer> terms = names.match(word);
+            if(terms.isEmpty()){
+                return new ArrayList<Customer>();
+            }
+            // terms are in rank order, the first has the best score
+            int best = terms.values().iterator().next();
+            bestSum += best;
+            long count = 0;
+            for(String term : terms.keySet()){
+                for(Stripe stripe : stripes){
+                    count += stripe.lastNames.count(term) + stripe.firstNames.count(term);
+                }
+            }
+            if(count < driverCount){
+                driver = terms;
+                driverCount = count;
+                driverBest = best;
+            }
+        }
+        // upper bound of the score the other words add to a candidate
+        int othersMax = bestSum - driverBest;
+        PriorityQueue<SearchHit> top = new PriorityQueue<SearchHit>(limit + 1, SearchHit.WORST_FIRST);
+        Set<Customer> seen = Collections.newSetFromMap(new IdentityHashMap<Customer, Boolean>());
+        for(Map.Entry<String, Integer> term : driver.entrySet()){
+            int bound = term.getValue() + othersMax;
+            Predicate<Customer> candidate = customer -> {
+                if(top.size() == limit && top.peek().score >= bound){
+                    return false;
+                }
+                if(seen.add(customer)){
+                    int score = score(customer, words);
+                    if(score > 0){
+                        top.add(new SearchHit(customer, score, seen.size()));
+                        if(top.size() > limit){
+                            top.poll();
+                        }
+                    }
+                }
+                return true;
+            };
+            if(!visit(inIdOrder(stripe -> stripe.lastNames.iterator(term.getKey())), candidate)
+                    || !visit(inIdOrder(stripe -> stripe.firstNames.iterator(term.getKey())), candidate)){
+                break;
+            }
+        }
+        List<SearchHit> hits = new ArrayList<SearchHit>(top);
+        hits.sort(SearchHit.WORST_FIRST.reversed());
+        List<Customer> result = new ArrayList<Customer>(hits.size());
+        hits.forEach(hit -> result.add(hit.customer));
+        return result;
+    }
+
+    /**
+     * Collect customers of index under all names with prefix, must be called
+     * with all stripes locked. Names are shared by first and last names, each
+     * is looked up in index.
+     */
+    private List<Customer> findByPrefix(Function<Stripe, SecondaryIndex<String>> index, String prefix) {
+        List<Customer> found = new ArrayList<Customer>();
+        for(String term : names.withPrefix(prefix)){
+            inIdOrder(stripe -> index.apply(stripe).iterator(term)).forEachRemaining(found::add);
+        }
+        return found;
+    }
+
+    /**
+     * Merge id-ordered iterators of all stripes, must be used with all stripes locked.
+     */
+    private Iterator<Customer> inIdOrder(Function<Stripe, Iterator<Customer>> iterator) {
+        List<Iterator<Customer>> iterators = new ArrayList<Iterator<Customer>>(STRIPES);
+        for(Stripe stripe : stripes){
+            iterators.add(iterator.apply(stripe));
+        }
+        return new MergedIterator(iterators);
+    }
+
+    /**
+     * Iterator over the customers of id-ordered iterators in id order. The
+     * iterators hold disjoint ids, a stripe each.
+     */
+    private static final class MergedIterator implements Iterator<Customer> {
+        private final List<Iterator<Customer>> iterators;
+        private final Customer[] heads;
+
+        MergedIterator(List<Iterator<Customer>> iterators) {
+            this.iterators = iterators;
+            this.heads = new Customer[iterators.size()];
+            for(int i = 0; i < heads.length; i++){
+                heads[i] = iterators.get(i).hasNext() ? iterators.get(i).next() : null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            for(Customer head : heads){
+                if(head != null){
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Customer next() {
+            int min = -1;
+            for(int i = 0; i < heads.length; i++){
+                if(heads[i] != null && (min < 0 || heads[i].getId() < heads[min].getId())){
+                    min = i;
+                }
+            }
+            if(min < 0){
+                throw new NoSuchElementException();
+            }
+            Customer next = heads[min];
+            heads[min] = iterators.get(min).hasNext() ? iterators.get(min).next() : null;
+            return next;
+        }
+    }
+
+    /**
+     * Pass customers to visitor until it returns false.
+     *
+     * @return false if the visitor stopped.
+     */
+    private static boolean visit(Iterator<Customer> customers, Predicate<Customer> visitor) {
+        while(customers.hasNext()){
+            if(!visitor.test(customers.next())){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Customer> toList(Iterator<Customer> customers) {
+        List<Customer> list = new ArrayList<Customer>();
+        customers.forEachRemaining(list::add);
+        return list;
+    }
+
+    /**
+     * Sum of the best scores of words in first or last name of customer, 0 if
+     * a word matches neither.
+     */
+    private static int score(Customer customer, List<String> words) {
+        String first = normalizeName(customer.getFirstName());
+        String last = normalizeName(customer.getLastName());
+        int score = 0;
+        for(String word : words){
+            int best = Math.max(NameSearchIndex.score(first, word), NameSearchIndex.score(last, word));
+            if(best == 0){
+                return 0;
+            }
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Spliterator over a snapshot of the stored customers.
+     */
+    private Spliterator<Customer> spliterator() {
+        return Spliterators.spliterator(read(ALL, this::toArray), Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /**
+     * Copy customers of all stripes in insertion order, must be called with all
+     * stripes locked or in an optimistic read of all stripes. Customers of a
+     * stripe are in insertion order, the stripes are merged by their positions.
+     */
+    private Customer[] toArray() {
+        Customer[][] values = new Customer[STRIPES][];
+        long[][] positions = new long[STRIPES][];
+        int size = 0;
+        for(int i = 0; i < STRIPES; i++){
+            Stripe stripe = stripes[i];
+            values[i] = new Customer[stripe.customers.size()];
+            positions[i] = new long[values[i].length];
+            int n = 0;
+            for(Customer customer : stripe.customers){
+                values[i][n] = customer;
+                positions[i][n++] = stripe.positions.get(customer.getId());
+            }
+            size += n;
+        }
+        Customer[] all = new Customer[size];
+        int[] next = new int[STRIPES];
+        for(int k = 0; k < size; k++){
+            int min = -1;
+            for(int i = 0; i < STRIPES; i++){
+                if(next[i] < positions[i].length
+                        && (min < 0 || positions[i][next[i]] < positions[min][next[min]])){
+                    min = i;
+                }
+            }
+            all[k] = values[min][next[min]++];
+        }
+        return all;
+    }
+
+    /**
+     * Test whether a stored contact of customer normalizes to the same key as contact.
+     */
+    private static boolean hasContact(Customer customer, String contact) {
+        String key = normalizeContact(contact);
+        for(String c : customer.getContacts()){
+            if(normalizeContact(c).equals(key)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Validate ids and copy them into an array, shared with
+     * {@link ColumnarCustomerRepository}.
+     */
+    static long[] toIdArray(Iterable<? extends Long> ids) {
+        List<Long> list = new ArrayList<Long>();
+        for(Long id : ids){
+            if(id != null){
+                list.add(id);
+            }
+            else{
+                throw new IllegalArgumentException("ID must not be null");
+            }
+        }
+        return list.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Index key of a phonetic code, names without letters are not indexed.
+     */
+    private static String phoneticKey(String code) {
+        return code.isEmpty()? null : code;
+    }
+
+    static String normalizeName(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Normalize contact: phone numbers are reduced to their digits (and a leading
+     * '+'), other contacts such as e-mail addresses are compared ignoring case.
+     */
+    static String normalizeContact(String contact) {
+        String c = contact.trim();
+        // scanned by hand instead of a regex, runs for every contact when the
+        // repository is loaded
+        StringBuilder digits = new StringBuilder(c.length());
+        boolean phone = false;
+        for(int i = 0; i < c.length(); i++){
+            char ch = c.charAt(i);
+            if(ch >= '0' && ch <= '9'){
+                digits.append(ch);
+                phone = true;
+            }
+            else if(ch == '+' && i == 0){
+                digits.append(ch);
+            }
+            else if(PHONE_SEPARATORS.indexOf(ch) < 0){
+                return c.toLowerCase(Locale.ROOT);
+            }
+        }
+        return phone ? digits.toString() : c.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Run read operation as optimistic read of the stripes in mask and repeat it
+     * under their shared read locks when a concurrent writer invalidated the
+     * optimistic read. An exception of the operation is only taken for a torn
+     * read, e.g. of arrays resized by a concurrent writer, when the optimistic
+     * read is invalid, otherwise it is thrown.
+     *
+     * @param mask stripes read by the operation.
+     * @param op read operation, must not have side effects.
+     * @return result of the read operation.
+     */
+    private <R> R read(int mask, Supplier<R> op) {
+        long[] stamps = new long[STRIPES];
+        boolean optimistic = true;
+        for(int i = 0; i < STRIPES; i++){
+            if((mask & 1 << i) != 0){
+                stamps[i] = stripes[i].lock.tryOptimisticRead();
+                optimistic &= stamps[i] != 0;
+            }
+        }
+        if(optimistic){
+            try{
+                R result = op.get();
+                if(validate(mask, stamps)){
+                    return result;
+                }
+            }
+            catch(RuntimeException e){
+                if(validate(mask, stamps)){
+                    throw e;
+                }
+                // torn read, repeat under lock
+            }
+        }
+        return readLocked(mask, op);
+    }
+
+    private boolean validate(int mask, long[] stamps) {
+        for(int i = 0; i < STRIPES; i++){
+            if((mask & 1 << i) != 0 && !stripes[i].lock.validate(stamps[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run read operation under the shared read locks of the stripes in mask,
+     * taken in ascending order. Used for reads of secondary indexes, which do
+     * not tolerate concurrent modification.
+     *
+     * @param mask stripes read by the operation.
+     * @param op read operation.
+     * @return result of the read operation.
+     */
+    private <R> R readLocked(int mask, Supplier<R> op) {
+        long[] stamps = new long[STRIPES];
+        for(int i = 0; i < STRIPES; i++){
+            if((mask & 1 << i) != 0){
+                stamps[i] = stripes[i].lock.readLock();
+            }
+        }
+        try{
+            return op.get();
+        }
+        finally{
+            for(int i = STRIPES - 1; i >= 0; i--){
+                if((mask & 1 << i) != 0){
+                    stripes[i].lock.unlockRead(stamps[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run write operation under the exclusive locks of the stripes in mask,
+     * taken in ascending order, then notify listeners that the changes were
+     * committed. Listeners are not notified when the operation failed, its
+     * exception is not hidden by a failing listener.
+     *
+     * @param mask stripes changed by the operation.
+     * @param op write operation.
+     * @return result of the write operation.
+     */
+    private <R> R write(int mask, Supplier<R> op) {
+        long[] stamps = new long[STRIPES];
+        for(int i = 0; i < STRIPES; i++){
+            if((mask & 1 << i) != 0){
+                stamps[i] = stripes[i].lock.writeLock();
+            }
+        }
+        R result;
+        try{
+            result = op.get();
+        }
+        finally{
+            for(int i = STRIPES - 1; i >= 0; i--){
+                if((mask & 1 << i) != 0){
+                    stripes[i].lock.unlockWrite(stamps[i]);
+                }
+            }
+        }
+        listeners.forEach(Listener::committed);
+        return result;
+    }
+
+    /**
+     * Run operation that saves or deletes customers under the exclusive locks
+     * of the stripes in mask. Listeners are prepared first and may reject the
+     * operation before anything is changed.
+     *
+     * @param mask stripes changed by the operation.
+     * @param op operation saving or deleting customers.
+     * @return result of the operation.
+     */
+    private <R> R change(int mask, Supplier<R> op) {
+        return write(mask, () -> {
+            listeners.forEach(Listener::prepare);
+            return op.get();
+        });
+    }
+
+}
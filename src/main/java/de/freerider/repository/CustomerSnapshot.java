@@ -0,0 +1,179 @@
+package de.freerider.repository;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Snapshot file with all customers of the repository in compact binary layout,
+ * loaded through {@link MappedByteBuffer} for fast restart.
+ *
+ * Layout (big-endian):
+ * <pre>{@code
+ * int     MAGIC
+ * int     VERSION
+ * long    generation of the write-ahead log that continues after the snapshot
+ *         per customer: int length, CustomerCodec encoded customer
+ * int     END (record length that marks the end of records)
+ * long    number of customers
+ * }</pre>
+ * Snapshots are written to a temporary file and renamed when complete, a
+ * snapshot without trailer is rejected.
+ */
+
+final class CustomerSnapshot {
+
+    private static final int MAGIC = 0x46524353;	// "FRCS"
+
+    private static final int VERSION = 1;
+
+    private static final int END = -1;
+
+    private static final int HEADER = 4 + 4 + 8;
+
+    private static final int TRAILER = 4 + 8;
+
+    /**
+     * size of the file regions mapped at once.
+     */
+    private static final int WINDOW = 1 << 30;
+
+
+    private CustomerSnapshot() { }
+
+
+    /**
+     * Write snapshot of customers atomically to file.
+     *
+     * @param file snapshot file.
+     * @param generation generation of the write-ahead log that continues after the snapshot.
+     * @param customers customers to write.
+     * @return number of customers written.
+     * @throws IOException if the file cannot be written.
+     */
+    static long write( Path file, long generation, Iterable<Customer> customers ) throws IOException {
+        Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        long count = 0;
+        try( FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+            ByteBuffer buf = ByteBuffer.allocate( 1 << 20 );
+            buf.putInt( MAGIC ).putInt( VERSION ).putLong( generation );
+            for( Customer customer : customers ) {
+                byte[] record = encode( customer );
+                if( buf.remaining() < 4 + record.length ) {
+                    drain( out, buf );
+                    if( buf.remaining() < 4 + record.length ) {
+                        buf = ByteBuffer.allocate( 4 + record.length );
+                    }
+                }
+                buf.putInt( record.length ).put( record );
+                count++;
+            }
+            if( buf.remaining() < TRAILER ) {
+                drain( out, buf );
+            }
+            buf.putInt( END ).putLong( count );
+            drain( out, buf );
+            out.force( true );
+        }
+        Files.move( tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        return count;
+    }
+
+
+    /**
+     * Read snapshot and pass customers in batches to consumer.
+     *
+     * @param file snapshot file.
+     * @param batchSize number of customers per batch.
+     * @param consumer consumer of batches.
+     * @return generation of the write-ahead log that continues after the snapshot.
+     * @throws IOException if the file cannot be read or is incomplete.
+     */
+    static long read( Path file, int batchSize, Consumer<List<Customer>> consumer ) throws IOException {
+        try( FileChannel in = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            long size = in.size();
+            if( size < HEADER + TRAILER )
+                throw new IOException( "snapshot " + file + " is incomplete" );
+            //
+            MappedByteBuffer buf = in.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( size, WINDOW ) );
+            if( buf.getInt() != MAGIC || buf.getInt() != VERSION )
+                throw new IOException( file + " is not a customer snapshot" );
+            long generation = buf.getLong();
+            long offset = 0;	// file offset of buf
+            long count = 0;
+            List<Customer> batch = new ArrayList<Customer>( batchSize );
+            while( true ) {
+                if( buf.remaining() < 4 + 8 ) {
+                    buf = remap( in, offset += buf.position(), size );
+                }
+                int length = buf.getInt();
+                if( length == END )
+                    break;
+                if( length < 0 || offset + buf.position() + length > size )
+                    throw new IOException( "snapshot " + file + " is corrupt at offset " + ( offset + buf.position() ) );
+                if( buf.remaining() < length ) {
+                    buf = remap( in, offset += buf.position(), size );
+                }
+                int end = buf.position() + length;
+                batch.add( CustomerCodec.decode( buf.limit( end ) ) );
+                buf.limit( buf.capacity() ).position( end );
+                count++;
+                if( batch.size() == batchSize ) {
+                    consumer.accept( batch );
+                    batch = new ArrayList<Customer>( batchSize );
+                }
+            }
+            if( buf.remaining() < 8 || buf.getLong() != count )
+                throw new IOException( "snapshot " + file + " is incomplete" );
+            if( ! batch.isEmpty() ) {
+                consumer.accept( batch );
+            }
+            return generation;
+        }
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Encode customer, retry when the customer was changed concurrently while
+     * encoding. Changes after the log rotation are also in the new log.
+     */
+    private static byte[] encode( Customer customer ) {
+        for( int attempt = 1; ; attempt++ ) {
+            try {
+                return CustomerCodec.encode( customer );
+            } catch( RuntimeException e ) {
+                if( attempt == 10 )
+                    throw e;
+            }
+        }
+    }
+
+    private static void drain( FileChannel out, ByteBuffer buf ) throws IOException {
+        buf.flip();
+        while( buf.hasRemaining() ) {
+            out.write( buf );
+        }
+        buf.clear();
+    }
+
+    private static MappedByteBuffer remap( FileChannel in, long offset, long size ) throws IOException {
+        return in.map( FileChannel.MapMode.READ_ONLY, offset, Math.min( size - offset, WINDOW ) );
+    }
+
+}
@@ -0,0 +1,127 @@
+package de.freerider.repository;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Snapshot of the aggregate statistics of a {@link CustomerRepository}: the
+ * number of customers, customers per status and the distribution of the
+ * number of contacts per customer, e.g.
+ * <pre>{@code
+ * {"customers":3,"statuses":{"New":1,"InRegistration":0,"Active":2,"Suspended":0,"Deleted":0},"withoutStatus":0,
+ *  "withoutContacts":1,"contacts":4,"contactsPerCustomer":{"0":1,"1":0,"2":2,"3":0,..,"9+":0}}
+ * }</pre>
+ * Statistics are read from counters the repository keeps up to date, taking a
+ * snapshot does not visit customers, see {@link CustomerRepository#stats()}.
+ */
+
+public final class CustomerStats {
+
+    /**
+     * number of buckets of the contacts distribution, the last bucket counts
+     * customers with that many or more contacts.
+     */
+    static final int CONTACT_BUCKETS = 10;
+
+    private final long customers;
+
+    private final Map<Customer.Status, Long> statuses;
+
+    private final long withoutStatus;
+
+    private final long contacts;
+
+    private final long[] contactsPerCustomer;
+
+
+    CustomerStats( long customers, Map<Customer.Status, Long> statuses, long withoutStatus, long contacts,
+                   long[] contactsPerCustomer ) {
+        this.customers = customers;
+        this.statuses = Collections.unmodifiableMap( new EnumMap<Customer.Status, Long>( statuses ) );
+        this.withoutStatus = withoutStatus;
+        this.contacts = contacts;
+        this.contactsPerCustomer = contactsPerCustomer.clone();
+    }
+
+
+    /**
+     * Return number of customers.
+     *
+     * @return number of stored customers.
+     */
+    public long getCustomers() {
+        return customers;
+    }
+
+
+    /**
+     * Return number of customers per status.
+     *
+     * @return status -> number of customers, all statuses in declaration order.
+     */
+    public Map<Customer.Status, Long> getStatuses() {
+        return statuses;
+    }
+
+
+    /**
+     * Return number of customers without status, which are not counted in
+     * {@link #getStatuses()}.
+     *
+     * @return number of customers whose status is null.
+     */
+    public long getWithoutStatus() {
+        return withoutStatus;
+    }
+
+
+    /**
+     * Return number of customers without contacts.
+     *
+     * @return number of customers without contacts.
+     */
+    public long getWithoutContacts() {
+        return contactsPerCustomer[ 0 ];
+    }
+
+
+    /**
+     * Return number of contacts of all customers.
+     *
+     * @return sum of the contacts of all customers.
+     */
+    public long getContacts() {
+        return contacts;
+    }
+
+
+    /**
+     * Return distribution of the number of contacts per customer.
+     *
+     * @return number of contacts ("0", "1", .. "9+") -> number of customers.
+     */
+    public Map<String, Long> getContactsPerCustomer() {
+        Map<String, Long> distribution = new LinkedHashMap<String, Long>();
+        for( int i = 0; i < CONTACT_BUCKETS; i++ ) {
+            distribution.put( i < CONTACT_BUCKETS - 1? Integer.toString( i ) : i + "+", contactsPerCustomer[ i ] );
+        }
+        return distribution;
+    }
+
+
+    /**
+     * Return bucket of the contacts distribution for a number of contacts.
+     *
+     * @param contacts number of contacts of a customer.
+     * @return index of bucket.
+     */
+    static int bucket( int contacts ) {
+        return Math.min( contacts, CONTACT_BUCKETS - 1 );
+    }
+
+}
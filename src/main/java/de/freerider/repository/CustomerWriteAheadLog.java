@@ -0,0 +1,586 @@
+package de.freerider.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Append-only write-ahead log that makes changes of the CustomerRepository durable.
+ *
+ * Every change reported by the repository is appended as a binary record to an
+ * in-memory buffer while the stripe of the changed customer is locked, changes of
+ * one customer in order. After the stripe lock is released, the writing thread
+ * waits until its record is durable (group commit): the first waiting thread
+ * becomes leader, writes all buffered records with one {@link FileChannel#write}
+ * and one {@link FileChannel#force}, and wakes up all threads whose records were
+ * part of that batch. Concurrent writers therefore share one fsync.
+ *
+ * The log is split into generations {@code customers-<generation>.wal}. A
+ * {@link CustomerSnapshot} {@code customers-<generation>.snapshot} holds all
+ * customers as of the start of its log generation. A snapshot is taken when the
+ * current generation exceeds {@code app.repository.snapshot.wal-size} bytes and
+ * on shutdown. Taking a snapshot switches to a new log generation while all
+ * stripes of the repository are locked, then writes the customers without
+ * holding the locks and finally deletes older generations. Replaying the log
+ * is idempotent, so changes made while the snapshot is written may appear in
+ * both.
+ *
+ * On startup the latest snapshot is mapped into memory and loaded, then only the
+ * log generations after it are replayed into the repository before the log is
+ * attached as repository listener. A torn record at the end of the log (crash
+ * during write) is detected by its checksum and truncated.
+ *
+ * Record layout: {@code int length, byte type, payload, int crc32c(type, payload)}.
+ *
+ * The log is enabled by default. With {@code app.repository.wal.enabled=false},
+ * e.g. in tests, changes are not persisted and nothing is restored on startup.
+ */
+
+@Component
+public class CustomerWriteAheadLog implements CustomerRepository.Listener {
+
+    private static final Logger log = LoggerFactory.getLogger( CustomerWriteAheadLog.class );
+
+    static final byte SAVE = 1;     // payload: CustomerCodec encoded customer
+    static final byte DELETE = 2;   // payload: long id
+    static final byte CLEAR = 3;    // no payload
+
+    private static final int HEADER = 4 + 1;
+    private static final int TRAILER = 4;
+
+    private static final Pattern FILE_NAME = Pattern.compile( "customers-(\\d+)\\.(wal|snapshot)" );
+
+    private static final int LOAD_BATCH = 10_000;
+
+    private final CustomerRepository repository;
+
+    private final boolean enabled;
+
+    private final boolean fsync;
+
+    private final long snapshotWalSize;
+
+    private final boolean snapshotOnShutdown;
+
+    private final Path dir;
+
+    /**
+     * current log generation and file, changed only while all stripes are locked.
+     */
+    private long generation = 0;
+
+    private volatile Path file;
+
+    private volatile FileChannel channel;
+
+    /**
+     * bytes written to the current log generation, guarded by lock.
+     */
+    private long generationSize = 0;
+
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean( false );
+
+    private ExecutorService snapshotExecutor;
+
+    /**
+     * guards the pending buffer and sequence numbers. A lock rather than the
+     * monitor of this, so that threads waiting for a group commit do not pin the
+     * carrier thread when requests run on virtual threads.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * signalled when a leader finished writing a batch.
+     */
+    private final Condition written = lock.newCondition();
+
+    /**
+     * records appended but not yet written, guarded by lock.
+     */
+    private ByteBuffer pending = ByteBuffer.allocate( 64 * 1024 );
+
+    /**
+     * sequence number of the last appended record, guarded by lock.
+     */
+    private long appended = 0;
+
+    /**
+     * sequence number of the last durable record, guarded by lock.
+     */
+    private long durable = 0;
+
+    /**
+     * true while a leader writes a batch, guarded by lock.
+     */
+    private boolean syncing = false;
+
+    /**
+     * set when writing the log failed, no further changes are accepted.
+     */
+    private volatile IOException failure = null;
+
+    /**
+     * sequence number of the last record appended by the current thread.
+     */
+    private final ThreadLocal<long[]> lastAppended = ThreadLocal.withInitial( () -> new long[ 1 ] );
+
+
+    /**
+     * Constructor.
+     *
+     * @param repository repository whose changes are logged.
+     * @param dataDir directory of the log file.
+     * @param enabled log is only opened when enabled.
+     * @param fsync force records to disk before changes return.
+     * @param snapshotWalSize log size in bytes that triggers a snapshot, {@code <= 0} disables.
+     * @param snapshotOnShutdown take snapshot when the log is closed.
+     */
+    public CustomerWriteAheadLog( CustomerRepository repository,
+            @Value( "${app.repository.data-dir:data}" ) String dataDir,
+            @Value( "${app.repository.wal.enabled:true}" ) boolean enabled,
+            @Value( "${app.repository.wal.fsync:true}" ) boolean fsync,
+            @Value( "${app.repository.snapshot.wal-size:67108864}" ) long snapshotWalSize,
+            @Value( "${app.repository.snapshot.on-shutdown:true}" ) boolean snapshotOnShutdown ) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.fsync = fsync;
+        this.snapshotWalSize = snapshotWalSize;
+        this.snapshotOnShutdown = snapshotOnShutdown;
+        this.dir = Paths.get( dataDir );
+    }
+
+
+    /**
+     * Load latest snapshot and replay log generations after it into the repository,
+     * then open log for appending and attach it to the repository.
+     *
+     * @throws IOException if snapshot or log cannot be read or opened.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if( ! enabled )
+            return;
+        //
+        Files.createDirectories( dir );
+        Path legacy = dir.resolve( "customers.wal" );
+        if( Files.exists( legacy ) ) {
+            Files.move( legacy, walFile( 0 ) );	// log written before generations were introduced
+        }
+        long start = System.nanoTime();
+        List<Long> snapshots = generations( "snapshot" );
+        if( ! snapshots.isEmpty() ) {
+            generation = snapshots.get( snapshots.size() - 1 );
+            Path snapshot = snapshotFile( generation );
+            CustomerSnapshot.read( snapshot, LOAD_BATCH, repository::saveAll );
+            log.info( "loaded {} customers from {} in {} ms",
+                    repository.count(), snapshot, ( System.nanoTime() - start ) / 1_000_000 );
+        }
+        long replayStart = System.nanoTime();
+        long records = 0;
+        List<Long> wals = generations( "wal" );
+        for( long gen : wals ) {
+            if( gen >= generation ) {
+                generation = gen;
+                records += replay( walFile( gen ) );
+            }
+        }
+        file = walFile( generation );
+        channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+        channel.position( channel.size() );
+        generationSize = channel.size();
+        log.info( "replayed {} records up to {} in {} ms, startup took {} ms, repository has {} customers",
+                records, file, ( System.nanoTime() - replayStart ) / 1_000_000,
+                ( System.nanoTime() - start ) / 1_000_000, repository.count() );
+        snapshotExecutor = Executors.newSingleThreadExecutor( r -> {
+            Thread thread = new Thread( r, "customer-snapshot" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        repository.addListener( this );
+    }
+
+
+    /**
+     * Take snapshot of the repository: switch to a new log generation, write all
+     * customers to a snapshot file of that generation and delete older
+     * generations. Concurrent calls are skipped while a snapshot is being taken.
+     *
+     * @return true if a snapshot was taken.
+     * @throws IOException if rotating the log or writing the snapshot failed.
+     */
+    public boolean snapshot() throws IOException {
+        if( channel == null || ! snapshotRunning.compareAndSet( false, true ) )
+            return false;
+        try {
+            long start = System.nanoTime();
+            long[] gen = new long[ 1 ];
+            Iterable<Customer> customers = repository.snapshot( () -> gen[ 0 ] = rotate() );
+            Path snapshot = snapshotFile( gen[ 0 ] );
+            long count = CustomerSnapshot.write( snapshot, gen[ 0 ], customers );
+            for( long old : generations( "wal" ) ) {
+                if( old < gen[ 0 ] ) {
+                    Files.deleteIfExists( walFile( old ) );
+                }
+            }
+            for( long old : generations( "snapshot" ) ) {
+                if( old < gen[ 0 ] ) {
+                    Files.deleteIfExists( snapshotFile( old ) );
+                }
+            }
+            log.info( "wrote {} customers to {} in {} ms",
+                    count, snapshot, ( System.nanoTime() - start ) / 1_000_000 );
+            return true;
+        } finally {
+            snapshotRunning.set( false );
+        }
+    }
+
+
+    /**
+     * Detach log from the repository, write pending records and close the log.
+     *
+     * @throws IOException if pending records cannot be written.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        if( channel == null )
+            return;
+        //
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination( 1, TimeUnit.MINUTES );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        if( snapshotOnShutdown ) {
+            snapshot();
+        }
+        repository.removeListener( this );
+        long last;
+        lock.lock();
+        try {
+            last = appended;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            sync( last );
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    /**
+     * Reject changes once writing the log failed, before the repository
+     * applies them in memory.
+     *
+     * @throws UncheckedIOException if the log cannot be written.
+     */
+    @Override
+    public void prepare() {
+        if( failure != null )
+            throw new UncheckedIOException( "customer log " + file + " failed", failure );
+    }
+
+    @Override
+    public void saved( Customer customer ) {
+        append( SAVE, CustomerCodec.encode( customer ) );
+    }
+
+    @Override
+    public void deleted( long id ) {
+        append( DELETE, ByteBuffer.allocate( 8 ).putLong( id ).array() );
+    }
+
+    @Override
+    public void cleared() {
+        append( CLEAR, new byte[ 0 ] );
+    }
+
+    /**
+     * Wait until the records appended by this thread are durable.
+     *
+     * @throws UncheckedIOException if the log cannot be written.
+     */
+    @Override
+    public void committed() {
+        long[] last = lastAppended.get();
+        if( last[ 0 ] > 0 ) {
+            long seq = last[ 0 ];
+            last[ 0 ] = 0;
+            try {
+                sync( seq );
+            } catch( IOException e ) {
+                throw new UncheckedIOException( "customer log " + file + " failed", e );
+            }
+            if( snapshotWalSize > 0 && ! snapshotRunning.get() ) {
+                boolean full;
+                lock.lock();
+                try {
+                    full = generationSize > snapshotWalSize;
+                } finally {
+                    lock.unlock();
+                }
+                if( full ) {
+                    snapshotExecutor.execute( this::snapshotInBackground );
+                }
+            }
+        }
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Append record to the pending buffer, called with the stripe locked after
+     * the change was applied. Does not fail when writing the log failed, the
+     * change is then reported as failed by {@link #committed()}.
+     */
+    private void append( byte type, byte[] payload ) {
+        CRC32C crc = new CRC32C();
+        crc.update( type );
+        crc.update( payload );
+        lock.lock();
+        try {
+            int size = HEADER + payload.length + TRAILER;
+            if( pending.remaining() < size ) {
+                ByteBuffer grown = ByteBuffer.allocate( Math.max( pending.capacity() * 2, pending.position() + size ) );
+                pending.flip();
+                pending = grown.put( pending );
+            }
+            pending.putInt( payload.length ).put( type ).put( payload ).putInt( (int)crc.getValue() );
+            lastAppended.get()[ 0 ] = ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Group commit: wait until record seq is durable, or become the leader that
+     * writes all pending records.
+     */
+    private void sync( long seq ) throws IOException {
+        ByteBuffer batch;
+        long batchEnd;
+        lock.lock();
+        try {
+            while( durable < seq && syncing && failure == null ) {
+                try {
+                    written.await();
+                } catch( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException( "interrupted while waiting for customer log", e );
+                }
+            }
+            if( failure != null )
+                throw failure;
+            if( durable >= seq )
+                return;
+            // become leader, take all pending records as one batch
+            syncing = true;
+            batch = pending.flip();
+            batchEnd = appended;
+            pending = ByteBuffer.allocate( batch.capacity() );
+        } finally {
+            lock.unlock();
+        }
+        writeBatch( batch, batchEnd );
+    }
+
+    /**
+     * Write and force batch of records as leader, then wake up waiting threads.
+     */
+    private void writeBatch( ByteBuffer batch, long batchEnd ) throws IOException {
+        int size = batch.remaining();
+        try {
+            while( batch.hasRemaining() ) {
+                channel.write( batch );
+            }
+            if( fsync ) {
+                channel.force( false );
+            }
+        } catch( IOException e ) {
+            failure = e;
+            throw e;
+        } finally {
+            lock.lock();
+            try {
+                syncing = false;
+                if( failure == null ) {
+                    durable = batchEnd;
+                    generationSize += size;
+                }
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Switch to the next log generation, called while all stripes are locked
+     * so that no records are appended concurrently. Pending records are written
+     * to the current generation first.
+     *
+     * @return new generation.
+     */
+    private long rotate() {
+        try {
+            ByteBuffer batch;
+            long batchEnd;
+            lock.lock();
+            try {
+                while( syncing ) {
+                    written.await();	// leader does not need the repository lock to finish
+                }
+                if( failure != null )
+                    throw failure;
+                syncing = true;
+                batch = pending.flip();
+                batchEnd = appended;
+                pending = ByteBuffer.allocate( batch.capacity() );
+            } finally {
+                lock.unlock();
+            }
+            writeBatch( batch, batchEnd );
+            channel.force( true );
+            FileChannel next = FileChannel.open( walFile( generation + 1 ),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+            channel.close();
+            channel = next;
+            file = walFile( ++generation );
+            lock.lock();
+            try {
+                generationSize = 0;
+            } finally {
+                lock.unlock();
+            }
+            return generation;
+        } catch( IOException e ) {
+            throw new UncheckedIOException( "customer log rotation failed", e );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "interrupted while rotating customer log", e );
+        }
+    }
+
+    private void snapshotInBackground() {
+        try {
+            snapshot();
+        } catch( IOException | RuntimeException e ) {
+            log.error( "snapshot of customer repository failed", e );
+        }
+    }
+
+    private Path walFile( long gen ) {
+        return dir.resolve( String.format( "customers-%016d.wal", gen ) );
+    }
+
+    private Path snapshotFile( long gen ) {
+        return dir.resolve( String.format( "customers-%016d.snapshot", gen ) );
+    }
+
+    /**
+     * List generations of log or snapshot files in ascending order.
+     */
+    private List<Long> generations( String type ) throws IOException {
+        List<Long> generations = new ArrayList<Long>();
+        try( Stream<Path> files = Files.list( dir ) ) {
+            files.forEach( path -> {
+                Matcher m = FILE_NAME.matcher( path.getFileName().toString() );
+                if( m.matches() && m.group( 2 ).equals( type ) ) {
+                    generations.add( Long.parseLong( m.group( 1 ) ) );
+                }
+            });
+        }
+        Collections.sort( generations );
+        return generations;
+    }
+
+    /**
+     * Replay records into repository and truncate a torn tail.
+     *
+     * @return number of records replayed.
+     */
+    private long replay( Path file ) throws IOException {
+        if( ! Files.exists( file ) )
+            return 0;
+        //
+        long records = 0;
+        try( FileChannel in = FileChannel.open( file, StandardOpenOption.READ, StandardOpenOption.WRITE ) ) {
+            ByteBuffer buf = in.map( FileChannel.MapMode.READ_ONLY, 0, in.size() );
+            int valid = 0;
+            while( buf.remaining() >= HEADER + TRAILER ) {
+                int length = buf.getInt();
+                byte type = buf.get();
+                if( length < 0 || buf.remaining() < length + TRAILER )
+                    break;
+                ByteBuffer payload = buf.slice().limit( length );
+                buf.position( buf.position() + length );
+                CRC32C crc = new CRC32C();
+                crc.update( type );
+                crc.update( payload.duplicate() );
+                if( buf.getInt() != (int)crc.getValue() )
+                    break;
+                apply( type, payload );
+                valid = buf.position();
+                records++;
+            }
+            if( valid < in.size() ) {
+                log.warn( "truncating {} bytes of torn records at end of {}", in.size() - valid, file );
+                in.truncate( valid );
+            }
+        }
+        return records;
+    }
+
+    private void apply( byte type, ByteBuffer payload ) {
+        switch( type ) {
+        case SAVE:
+            repository.save( CustomerCodec.decode( payload ) );
+            break;
+        case DELETE:
+            repository.deleteById( payload.getLong() );
+            break;
+        case CLEAR:
+            repository.deleteAll();
+            break;
+        default:
+            throw new IllegalStateException( "unknown record type " + type + " in customer log" );
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package de.freerider.repository;
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressing hash table that maps primitive {@code long} keys to positions
+ * in a dense key column kept by its owner, e.g. the insertion-ordered arrays of
+ * {@link LongIndexMap} or the id column of {@link ColumnarCustomerRepository}.
+ *
+ * Slots hold positions or {@link #FREE}. Collisions are resolved by linear
+ * probing, removals by backward-shift deletion, which keeps probe sequences
+ * intact without tombstones. The table has at least twice as many slots as the
+ * column has positions (load factor {@code <= 0.5}), it is replaced rather than
+ * grown when the column is reallocated.
+ *
+ * The table refers to live positions only. It is not thread-safe, it is
+ * guarded like the column of its owner.
+ */
+
+final class LongHashTable {
+
+    /**
+     * marker for a free slot.
+     */
+    static final int FREE = -1;
+
+    /**
+     * slot -> position in the key column or FREE; length is a power of two.
+     */
+    private final int[] table;
+
+
+    /**
+     * Constructor of an empty table for a key column of capacity positions.
+     *
+     * @param capacity capacity of the key column.
+     */
+    LongHashTable( int capacity ) {
+        table = new int[ Integer.highestOneBit( capacity - 1 ) << 2 ];
+        Arrays.fill( table, FREE );
+    }
+
+
+    /**
+     * Find slot of key.
+     *
+     * @param key key to look up.
+     * @param keys key column of the owner.
+     * @return slot {@code >= 0} if key is present, otherwise {@code -(free slot) - 1}.
+     */
+    int slotOf( long key, long[] keys ) {
+        int mask = table.length - 1;
+        for( int slot = hash( key ) & mask; ; slot = ( slot + 1 ) & mask ) {
+            int pos = table[ slot ];
+            if( pos == FREE )
+                return -slot - 1;
+            if( keys[ pos ] == key )
+                return slot;
+        }
+    }
+
+
+    /**
+     * Return position of the key found in slot.
+     *
+     * @param slot slot returned by {@link #slotOf(long, long[])}, {@code >= 0}.
+     * @return position in the key column.
+     */
+    int position( int slot ) {
+        return table[ slot ];
+    }
+
+
+    /**
+     * Insert position of an absent key into the free slot found for it.
+     *
+     * @param slot negative result of {@link #slotOf(long, long[])} for the key.
+     * @param pos position of the key in the key column.
+     */
+    void insert( int slot, int pos ) {
+        table[ -slot - 1 ] = pos;
+    }
+
+
+    /**
+     * Insert position of a key known to be absent, e.g. while rebuilding.
+     *
+     * @param key key at pos.
+     * @param pos position of the key in the key column.
+     */
+    void add( long key, int pos ) {
+        int mask = table.length - 1;
+        int slot = hash( key ) & mask;
+        while( table[ slot ] != FREE ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        table[ slot ] = pos;
+    }
+
+
+    /**
+     * Remove the key found in slot. The key column is not changed.
+     *
+     * @param slot slot returned by {@link #slotOf(long, long[])}, {@code >= 0}.
+     * @param keys key column of the owner.
+     */
+    void remove( int slot, long[] keys ) {
+        int mask = table.length - 1;
+        int hole = slot;
+        for( int j = ( hole + 1 ) & mask; table[ j ] != FREE; j = ( j + 1 ) & mask ) {
+            int home = hash( keys[ table[ j ] ] ) & mask;
+            if( ( ( j - home ) & mask ) >= ( ( j - hole ) & mask ) ) {
+                table[ hole ] = table[ j ];
+                hole = j;
+            }
+        }
+        table[ hole ] = FREE;
+    }
+
+
+    /**
+     * Remove all keys.
+     */
+    void clear() {
+        Arrays.fill( table, FREE );
+    }
+
+
+    /**
+     * Spread key bits (Fibonacci hashing), package-private for tests that
+     * place keys in particular slots and for partitioning by key.
+     */
+    static int hash( long key ) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)( h ^ ( h >>> 32 ) );
+    }
+
+}
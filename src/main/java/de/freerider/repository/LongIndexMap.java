@@ -0,0 +1,259 @@
+package de.freerider.repository;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Open-addressing hash map with primitive {@code long} keys that iterates values
+ * in insertion order.
+ *
+ * Entries are kept in dense, insertion-ordered {@code keys[]} and {@code values[]}
+ * arrays. A separate linear-probing {@link LongHashTable} maps keys to positions
+ * in the dense arrays. Removed entries leave a {@code null} hole in the dense arrays, which is
+ * reclaimed when the arrays are compacted on the next growth.
+ *
+ * Keys are never boxed. Values must not be {@code null}. The map is not thread-safe.
+ *
+ * @param <V> type of values stored in the map.
+ */
+
+final class LongIndexMap<V> implements Iterable<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * hash table, key -> position in the dense arrays.
+     */
+    private LongHashTable table;
+
+    /**
+     * dense, insertion-ordered keys.
+     */
+    private long[] keys;
+
+    /**
+     * dense, insertion-ordered values, {@code null} marks a removed entry.
+     */
+    private Object[] values;
+
+    /**
+     * number of used positions in the dense arrays, including removed entries.
+     */
+    private int end = 0;
+
+    /**
+     * number of live entries.
+     */
+    private int size = 0;
+
+
+    /**
+     * Default constructor.
+     */
+    LongIndexMap() {
+        this( MIN_CAPACITY );
+    }
+
+
+    /**
+     * Constructor with initial capacity.
+     *
+     * @param capacity number of entries the map holds without growing.
+     */
+    LongIndexMap( int capacity ) {
+        allocate( Math.max( MIN_CAPACITY, capacity ) );
+    }
+
+
+    /**
+     * Return number of entries.
+     *
+     * @return number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Return capacity of the dense arrays, the number of entries and removed
+     * entries the map holds before it is compacted or grown.
+     *
+     * @return capacity of the dense arrays.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+
+    /**
+     * Test whether key is present.
+     *
+     * @param key key to look up.
+     * @return true if key is present.
+     */
+    boolean containsKey( long key ) {
+        return slotOf( key ) >= 0;
+    }
+
+
+    /**
+     * Return value for key.
+     *
+     * @param key key to look up.
+     * @return value for key or {@code null} if key is not present.
+     */
+    @SuppressWarnings("unchecked")
+    V get( long key ) {
+        int slot = slotOf( key );
+        return slot >= 0? (V)values[ table.position( slot ) ] : null;
+    }
+
+
+    /**
+     * Associate value with key. A replaced value keeps its position in insertion order.
+     *
+     * @param key key of the entry.
+     * @param value value of the entry, must not be {@code null}.
+     * @return previous value for key or {@code null} if key was not present.
+     */
+    @SuppressWarnings("unchecked")
+    V put( long key, V value ) {
+        if( value == null )
+            throw new IllegalArgumentException( "value must not be null" );
+        //
+        int slot = slotOf( key );
+        if( slot >= 0 ) {
+            int pos = table.position( slot );
+            V previous = (V)values[ pos ];
+            values[ pos ] = value;
+            return previous;
+        }
+        if( end == keys.length ) {
+            // dense arrays full: compact when at least a quarter are holes, otherwise grow
+            allocate( size <= ( end - ( end >> 2 ) )? end : end << 1 );
+            slot = slotOf( key );
+        }
+        int pos = end++;
+        keys[ pos ] = key;
+        values[ pos ] = value;
+        table.insert( slot, pos );
+        size++;
+        return null;
+    }
+
+
+    /**
+     * Remove entry for key.
+     *
+     * @param key key of entry to remove.
+     * @return removed value or {@code null} if key was not present.
+     */
+    @SuppressWarnings("unchecked")
+    V remove( long key ) {
+        int slot = slotOf( key );
+        if( slot < 0 )
+            return null;
+        //
+        int pos = table.position( slot );
+        V removed = (V)values[ pos ];
+        values[ pos ] = null;
+        size--;
+        table.remove( slot, keys );
+        if( size == 0 ) {
+            clear();	// reset dense arrays cheaply when the map becomes empty
+        }
+        return removed;
+    }
+
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        if( end > 0 ) {
+            table.clear();
+            Arrays.fill( values, 0, end, null );
+            end = 0;
+            size = 0;
+        }
+    }
+
+
+    /**
+     * Iterator over values in insertion order. Entries removed while iterating
+     * are skipped, the iterator fails with {@link ConcurrentModificationException}
+     * when the map was compacted or grown while iterating.
+     */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            private final Object[] vals = values;
+            private int pos = 0;
+
+            @Override
+            public boolean hasNext() {
+                if( vals != values )
+                    throw new ConcurrentModificationException();
+                // skip holes lazily, entries may be removed while iterating
+                while( pos < end && vals[ pos ] == null ) {
+                    pos++;
+                }
+                return pos < end;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if( ! hasNext() )
+                    throw new NoSuchElementException();
+                return (V)vals[ pos++ ];
+            }
+        };
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Find hash table slot of key.
+     *
+     * @param key key to look up.
+     * @return slot {@code >= 0} if key is present, otherwise {@code -(free slot) - 1}.
+     */
+    private int slotOf( long key ) {
+        return table.slotOf( key, keys );
+    }
+
+    /**
+     * Allocate dense arrays and hash table of given capacity, move live entries
+     * over in insertion order and drop removed entries. The new arrays are
+     * filled completely before they replace the fields, the map never refers
+     * to a partially initialized table.
+     *
+     * @param capacity new capacity of the dense arrays.
+     */
+    private void allocate( int capacity ) {
+        long[] newKeys = new long[ capacity ];
+        Object[] newValues = new Object[ capacity ];
+        LongHashTable newTable = new LongHashTable( capacity );
+        int newEnd = 0;
+        for( int i = 0; i < end; i++ ) {
+            if( values[ i ] != null ) {
+                newKeys[ newEnd ] = keys[ i ];
+                newValues[ newEnd ] = values[ i ];
+                newTable.add( keys[ i ], newEnd++ );
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        end = newEnd;
+        table = newTable;
+    }
+
+}
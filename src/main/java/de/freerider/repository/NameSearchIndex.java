@@ -0,0 +1,178 @@
+package de.freerider.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * Index of the distinct normalized first and last names of stored customers
+ * ("terms") that finds the terms matching a partial name typed by a user.
+ *
+ * Terms are kept in a hash set for the membership test on every change and in
+ * a sorted set, terms with a prefix are a range of the sorted set.
+ * Each term is also added to the posting lists of its trigrams (substrings of
+ * three characters). The terms containing a word of three or more characters
+ * are the intersection of the posting lists of the word's trigrams, starting
+ * with the shortest list, verified by a substring test.
+ *
+ * Matches are scored: {@value #EXACT} when the term equals the word,
+ * {@value #PREFIX} when the term or one of its words starts with it,
+ * {@value #INFIX} when it occurs elsewhere in the term. Matches are ranked by
+ * score, then shorter terms (closer to the word) first, then alphabetically.
+ *
+ * The index holds terms only, customers with a term are looked up in the
+ * name indexes of the repository. The index is not thread-safe, the owning
+ * repository changes it under a lock shared by writers of all stripes and
+ * reads it with all stripes locked.
+ */
+final class NameSearchIndex {
+
+    static final int EXACT = 3;
+
+    static final int PREFIX = 2;
+
+    static final int INFIX = 1;
+
+    private final Set<String> terms = new HashSet<String>();
+
+    /**
+     * terms in order for prefix ranges.
+     */
+    private final TreeSet<String> sorted = new TreeSet<String>();
+
+    /**
+     * trigram -> terms containing the trigram.
+     */
+    private final Map<String, Set<String>> trigrams = new HashMap<String, Set<String>>();
+
+
+    /**
+     * Add term, no effect if the term is already indexed.
+     *
+     * @param term normalized name, not indexed when empty.
+     */
+    void add( String term ) {
+        if( ! term.isEmpty() && terms.add( term ) ) {
+            sorted.add( term );
+            for( int i = 0; i + 3 <= term.length(); i++ ) {
+                trigrams.computeIfAbsent( term.substring( i, i + 3 ), t -> new TreeSet<String>() ).add( term );
+            }
+        }
+    }
+
+
+    /**
+     * Remove term, no effect if the term is not indexed.
+     *
+     * @param term normalized name.
+     */
+    void remove( String term ) {
+        if( terms.remove( term ) ) {
+            sorted.remove( term );
+            for( int i = 0; i + 3 <= term.length(); i++ ) {
+                String trigram = term.substring( i, i + 3 );
+                Set<String> posting = trigrams.get( trigram );
+                if( posting != null ) {
+                    posting.remove( term );
+                    if( posting.isEmpty() )
+                        trigrams.remove( trigram );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Return terms matching word with their score, words shorter than three
+     * characters only match as prefix of a term.
+     *
+     * @param word normalized word of a query.
+     * @return matching terms with score in order of their rank.
+     */
+    Map<String, Integer> match( String word ) {
+        List<String> candidates;
+        if( word.length() < 3 ) {
+            candidates = new ArrayList<String>( withPrefix( word ) );
+        } else {
+            List<Set<String>> postings = new ArrayList<Set<String>>();
+            for( int i = 0; i + 3 <= word.length(); i++ ) {
+                Set<String> posting = trigrams.get( word.substring( i, i + 3 ) );
+                if( posting == null )
+                    return new LinkedHashMap<String, Integer>();
+                postings.add( posting );
+            }
+            postings.sort( ( p1, p2 ) -> Integer.compare( p1.size(), p2.size() ) );
+            candidates = new ArrayList<String>();
+            for( String term : postings.get( 0 ) ) {
+                if( term.contains( word ) )
+                    candidates.add( term );
+            }
+        }
+        Map<String, Integer> scores = new HashMap<String, Integer>();
+        candidates.forEach( term -> scores.put( term, score( term, word ) ) );
+        candidates.sort( Comparator.<String>comparingInt( term -> - scores.get( term ) )
+                .thenComparingInt( String::length ).thenComparing( Comparator.naturalOrder() ) );
+        Map<String, Integer> matches = new LinkedHashMap<String, Integer>();
+        candidates.forEach( term -> matches.put( term, scores.get( term ) ) );
+        return matches;
+    }
+
+
+    /**
+     * Return terms starting with prefix.
+     *
+     * @param prefix normalized prefix.
+     * @return view of the terms with prefix in alphabetical order.
+     */
+    SortedSet<String> withPrefix( String prefix ) {
+        return sorted.subSet( prefix, true, prefix + Character.MAX_VALUE, false );
+    }
+
+
+    /**
+     * Return score of term for word, 0 if the term does not contain the word.
+     *
+     * @param term normalized name.
+     * @param word normalized word of a query.
+     * @return {@value #EXACT}, {@value #PREFIX}, {@value #INFIX} or 0.
+     */
+    static int score( String term, String word ) {
+        if( term.equals( word ) )
+            return EXACT;
+        int i = term.indexOf( word );
+        if( i < 0 )
+            return 0;
+        if( i == 0 || term.contains( " " + word ) || term.contains( "-" + word ) )
+            return PREFIX;
+        return INFIX;
+    }
+
+
+    /**
+     * Return number of indexed terms.
+     *
+     * @return number of terms.
+     */
+    int size() {
+        return terms.size();
+    }
+
+
+    /**
+     * Remove all terms.
+     */
+    void clear() {
+        terms.clear();
+        sorted.clear();
+        trigrams.clear();
+    }
+
+}
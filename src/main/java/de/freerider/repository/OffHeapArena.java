@@ -0,0 +1,127 @@
+package de.freerider.repository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Append-only arena of variable-length records in direct (off-heap) memory.
+ *
+ * Records are appended to chunks allocated with {@link ByteBuffer#allocateDirect(int)}.
+ * Chunks double in size from {@code MIN_CHUNK} up to {@code MAX_CHUNK}, a record never
+ * spans two chunks. A record is addressed by a {@code long} with the chunk index in
+ * the upper and the offset of the record in the chunk in the lower 32 bits, each
+ * record is prefixed with its {@code int} length.
+ *
+ * Records cannot be freed individually, owners copy live records into a new arena
+ * and drop the old one to reclaim space. The arena is not thread-safe.
+ */
+
+final class OffHeapArena {
+
+    private static final int MIN_CHUNK = 1 << 16;
+
+    private static final int MAX_CHUNK = 1 << 26;
+
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    /**
+     * chunk records are appended to, {@code null} before the first append.
+     */
+    private ByteBuffer current = null;
+
+    /**
+     * bytes used by records including length prefixes.
+     */
+    private long used = 0;
+
+    /**
+     * bytes allocated in chunks.
+     */
+    private long capacity = 0;
+
+
+    /**
+     * Append record.
+     *
+     * @param record bytes of the record.
+     * @return address of the record.
+     */
+    long append( byte[] record ) {
+        int size = 4 + record.length;
+        if( current == null || current.remaining() < size ) {
+            long next = Math.min( MAX_CHUNK, Math.max( MIN_CHUNK, current != null? current.capacity() * 2L : 0 ) );
+            current = ByteBuffer.allocateDirect( (int)Math.max( next, size ) );
+            chunks.add( current );
+            capacity += current.capacity();
+        }
+        long address = ( (long)( chunks.size() - 1 ) << 32 ) | current.position();
+        current.putInt( record.length ).put( record );
+        used += size;
+        return address;
+    }
+
+
+    /**
+     * Append a copy of a record of another arena.
+     *
+     * @param from arena that holds the record.
+     * @param address address of the record in from.
+     * @return address of the copy in this arena.
+     */
+    long copy( OffHeapArena from, long address ) {
+        ByteBuffer record = from.get( address );
+        byte[] bytes = new byte[ record.remaining() ];
+        record.get( bytes );
+        return append( bytes );
+    }
+
+
+    /**
+     * Return record as buffer positioned at its first byte and limited to its end.
+     * The buffer is an independent view of the arena memory.
+     *
+     * @param address address of the record.
+     * @return record.
+     */
+    ByteBuffer get( long address ) {
+        ByteBuffer chunk = chunks.get( (int)( address >>> 32 ) ).duplicate();
+        int offset = (int)address;
+        int length = chunk.getInt( offset );
+        chunk.limit( offset + 4 + length ).position( offset + 4 );
+        return chunk;
+    }
+
+
+    /**
+     * Return number of bytes the record occupies including its length prefix.
+     *
+     * @param address address of the record.
+     * @return size of the record.
+     */
+    int size( long address ) {
+        return 4 + chunks.get( (int)( address >>> 32 ) ).getInt( (int)address );
+    }
+
+
+    /**
+     * Return number of bytes used by records.
+     *
+     * @return used bytes.
+     */
+    long used() {
+        return used;
+    }
+
+
+    /**
+     * Return number of bytes allocated off-heap.
+     *
+     * @return allocated bytes.
+     */
+    long capacity() {
+        return capacity;
+    }
+
+}
@@ -0,0 +1,163 @@
+package de.freerider.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import de.freerider.datamodel.Customer;
+
+
+/**
+ * Index that maps keys derived from a Customer attribute to the set of
+ * Customers with that key.
+ *
+ * Keys are normalized with a key function before they are stored or looked up,
+ * {@code null} keys are not indexed. A key with a single customer maps to the
+ * customer itself, only keys shared by several customers allocate a set, which
+ * keeps mostly-unique indexes such as contacts small. Customers of a key are
+ * kept in id order, a customer replaces another instance with the same id.
+ *
+ * The index is not thread-safe, it is guarded by the lock of the owning stripe
+ * of the repository.
+ *
+ * @param <K> type of index keys.
+ */
+
+final class SecondaryIndex<K> {
+
+    /**
+     * order of customers with the same key.
+     */
+    static final Comparator<Customer> BY_ID = Comparator.comparingLong( Customer::getId );
+
+    /**
+     * key -> Customer or {@code NavigableSet<Customer>} ordered by id.
+     */
+    private final Map<K, Object> index;
+
+    private final Function<K, K> normalizer;
+
+
+    /**
+     * Constructor.
+     *
+     * @param index empty map that holds the index, e.g. HashMap or EnumMap.
+     * @param normalizer function applied to keys before they are stored or looked up.
+     */
+    SecondaryIndex( Map<K, Object> index, Function<K, K> normalizer ) {
+        this.index = index;
+        this.normalizer = normalizer;
+    }
+
+
+    /**
+     * Add customer under key.
+     *
+     * @param key index key, not indexed when null.
+     * @param customer customer to add.
+     */
+    void add( K key, Customer customer ) {
+        if( key != null ) {
+            index.merge( normalizer.apply( key ), customer, ( present, c ) -> {
+                if( present instanceof Customer ) {
+                    if( ( (Customer)present ).getId() == ( (Customer)c ).getId() )
+                        return c;
+                    NavigableSet<Customer> customers = new TreeSet<Customer>( BY_ID );
+                    customers.add( (Customer)present );
+                    customers.add( (Customer)c );
+                    return customers;
+                }
+                NavigableSet<Customer> customers = set( present );
+                customers.remove( c );		// another instance with the same id
+                customers.add( (Customer)c );
+                return present;
+            });
+        }
+    }
+
+
+    /**
+     * Remove customer from key. Another instance with the same id is not removed.
+     *
+     * @param key key under which customer was added.
+     * @param customer customer to remove.
+     */
+    void remove( K key, Customer customer ) {
+        if( key != null ) {
+            index.computeIfPresent( normalizer.apply( key ), ( k, present ) -> {
+                if( present instanceof Customer )
+                    return present == customer? null : present;
+                NavigableSet<Customer> customers = set( present );
+                if( customers.ceiling( customer ) == customer ) {
+                    customers.remove( customer );
+                }
+                return customers.size() > 1? customers : customers.first();
+            });
+        }
+    }
+
+
+    /**
+     * Return customers with key.
+     *
+     * @param key key to look up.
+     * @return copy of customers with key in id order.
+     */
+    List<Customer> get( K key ) {
+        Object present = key != null? index.get( normalizer.apply( key ) ) : null;
+        if( present instanceof Customer ) {
+            List<Customer> customers = new ArrayList<Customer>( 1 );
+            customers.add( (Customer)present );
+            return customers;
+        }
+        return present != null? new ArrayList<Customer>( set( present ) ) : new ArrayList<Customer>();
+    }
+
+
+    /**
+     * Iterate customers with key in id order without copying them.
+     * The iterator must not be used after the index changes.
+     *
+     * @param key key to look up.
+     * @return iterator over customers with key.
+     */
+    Iterator<Customer> iterator( K key ) {
+        Object present = key != null? index.get( normalizer.apply( key ) ) : null;
+        if( present instanceof Customer )
+            return Collections.singleton( (Customer)present ).iterator();
+        return present != null? set( present ).iterator() : Collections.emptyIterator();
+    }
+
+
+    /**
+     * Return number of customers with key.
+     *
+     * @param key key to look up.
+     * @return number of customers with key.
+     */
+    int count( K key ) {
+        Object present = key != null? index.get( normalizer.apply( key ) ) : null;
+        return present instanceof Customer? 1 : present != null? set( present ).size() : 0;
+    }
+
+
+    /**
+     * Remove all keys.
+     */
+    void clear() {
+        index.clear();
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static NavigableSet<Customer> set( Object present ) {
+        return (NavigableSet<Customer>)present;
+    }
+
+}
@@ -0,0 +1,225 @@
+package de.freerider.restapi;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Asynchronous access log with one JSON line per request:
+ * <pre>{@code
+ * {"ts":"2026-10-17T23:45:01.123Z","method":"GET","uri":"/api/v1/customers","status":200,"latencyMicros":1234,"bytes":4570}
+ * }</pre>
+ * Request threads only allocate an entry and add it to a lock-free
+ * {@link AccessLogBuffer}, they never wait for I/O or a lock. A background
+ * thread drains the buffer in batches and writes each batch with one flush to
+ * the file {@code app.access-log.file}, or to stderr if no file is configured.
+ *
+ * Memory is bounded by {@code app.access-log.capacity} entries. When the buffer
+ * is full, entries are dropped and counted. The writer reports new drops as
+ * {@code {"ts":..,"dropped":n,"droppedTotal":m}} lines.
+ */
+@Component
+class AccessLog {
+
+    private static final Logger log = LoggerFactory.getLogger( AccessLog.class );
+
+    private static final int BATCH = 1024;
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    /**
+     * Logged request.
+     */
+    static final class Entry {
+        final long timestamp;
+        final String method;
+        final String uri;
+        final int status;
+        final long latencyNanos;
+        final long bytes;
+
+        Entry( long timestamp, String method, String uri, int status, long latencyNanos, long bytes ) {
+            this.timestamp = timestamp;
+            this.method = method;
+            this.uri = uri;
+            this.status = status;
+            this.latencyNanos = latencyNanos;
+            this.bytes = bytes;
+        }
+    }
+
+    private final boolean enabled;
+
+    private final AccessLogBuffer<Entry> buffer;
+
+    private final LongAdder dropped = new LongAdder();
+
+    /*
+     * drops already reported, accessed by the writer thread only
+     */
+    private long reported = 0;
+
+    private final JsonGenerator generator;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+
+    /**
+     * Constructor, starts the writer thread.
+     *
+     * @param enabled  false to discard all entries.
+     * @param capacity maximum number of entries waiting to be written.
+     * @param file     log file entries are appended to, stderr if empty.
+     * @throws IOException if the log file cannot be opened.
+     */
+    AccessLog( @Value( "${app.access-log.enabled:true}" ) boolean enabled,
+               @Value( "${app.access-log.capacity:8192}" ) int capacity,
+               @Value( "${app.access-log.file:}" ) String file ) throws IOException {
+        this.enabled = enabled;
+        this.buffer = new AccessLogBuffer<Entry>( capacity );
+        Writer out = file.isEmpty()
+                ? new OutputStreamWriter( System.err, StandardCharsets.UTF_8 )
+                : Files.newBufferedWriter( Paths.get( file ), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+        this.generator = new JsonFactory().createGenerator( out );
+        generator.setRootValueSeparator( null );		// entries are separated by newlines
+        if( file.isEmpty() )
+            generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+        this.writer = new Thread( this::drain, "access-log" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+
+    /**
+     * Log request, called by request threads. Never blocks, the entry is dropped
+     * if the buffer is full.
+     *
+     * @param method       HTTP method.
+     * @param uri          request URI.
+     * @param status       response status.
+     * @param latencyNanos time from receiving the request to completing the response.
+     * @param bytes        bytes of the response body, -1 if unknown.
+     */
+    void record( String method, String uri, int status, long latencyNanos, long bytes ) {
+        if( ! enabled )
+            return;
+        if( ! buffer.offer( new Entry( System.currentTimeMillis(), method, uri, status, latencyNanos, bytes ) ) ) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Return number of entries dropped because the buffer was full.
+     *
+     * @return number of dropped entries.
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop the writer thread after the remaining entries were written.
+     */
+    @PreDestroy
+    void close() {
+        running = false;
+        LockSupport.unpark( writer );
+        try {
+            writer.join( TimeUnit.SECONDS.toMillis( 5 ) );
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            generator.close();
+        } catch( IOException e ) {
+            log.warn( "closing access log failed: {}", e.toString() );
+        }
+    }
+
+
+    /*
+     * private methods
+     */
+
+    /**
+     * Writer thread: write batches until closed and the buffer is empty.
+     */
+    private void drain() {
+        boolean failed = false;
+        for( ;; ) {
+            boolean stopping = ! running;
+            int written = 0;
+            try {
+                written = writeBatch();
+                failed = false;
+            } catch( IOException e ) {
+                if( ! failed )
+                    log.warn( "writing access log failed: {}", e.toString() );
+                failed = true;
+            }
+            if( written == 0 ) {
+                if( stopping )
+                    return;
+                LockSupport.parkNanos( IDLE_NANOS );
+            }
+        }
+    }
+
+    /**
+     * Write up to BATCH entries and new drops with one flush.
+     *
+     * @return number of entries written.
+     */
+    private int writeBatch() throws IOException {
+        int written = 0;
+        for( Entry entry = buffer.poll(); entry != null; entry = written < BATCH ? buffer.poll() : null ) {
+            generator.writeStartObject();
+            generator.writeStringField( "ts", Instant.ofEpochMilli( entry.timestamp ).toString() );
+            generator.writeStringField( "method", entry.method );
+            generator.writeStringField( "uri", entry.uri );
+            generator.writeNumberField( "status", entry.status );
+            generator.writeNumberField( "latencyMicros", TimeUnit.NANOSECONDS.toMicros( entry.latencyNanos ) );
+            generator.writeNumberField( "bytes", entry.bytes );
+            generator.writeEndObject();
+            generator.writeRaw( '\n' );
+            written++;
+        }
+        long drops = dropped.sum();
+        boolean dropsWritten = drops > reported;
+        if( dropsWritten ) {
+            generator.writeStartObject();
+            generator.writeStringField( "ts", Instant.now().toString() );
+            generator.writeNumberField( "dropped", drops - reported );
+            generator.writeNumberField( "droppedTotal", drops );
+            generator.writeEndObject();
+            generator.writeRaw( '\n' );
+            reported = drops;
+        }
+        if( written > 0 || dropsWritten ) {
+            generator.flush();
+        }
+        return written;
+    }
+
+}
@@ -0,0 +1,109 @@
+package de.freerider.restapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Bounded lock-free ring buffer with many producers and one consumer, used to
+ * hand access log entries from request threads to the log writer.
+ *
+ * Every slot carries a sequence number (D. Vyukov's bounded queue). A producer
+ * claims the slot at the tail with one compare-and-set, stores the element and
+ * publishes it by advancing the slot's sequence. The consumer takes elements in
+ * order and releases each slot for the next round. A full buffer rejects the
+ * element instead of blocking or growing, memory is bounded by the capacity.
+ *
+ * @param <E> element type.
+ */
+final class AccessLogBuffer<E> {
+
+    private final Object[] slots;
+
+    /**
+     * per slot: position + 1 when published, position + capacity when free for
+     * the producer of that position.
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /*
+     * position of the next element to take, accessed by the consumer only
+     */
+    private long head = 0;
+
+
+    /**
+     * Constructor.
+     *
+     * @param capacity number of slots, rounded up to a power of two.
+     */
+    AccessLogBuffer( int capacity ) {
+        if( capacity < 1 )
+            throw new IllegalArgumentException( "capacity must be positive" );
+        int size = Integer.highestOneBit( Math.max( 1, capacity - 1 ) ) << 1;
+        this.slots = new Object[ size ];
+        this.sequences = new AtomicLongArray( size );
+        for( int i = 0; i < size; i++ ) {
+            sequences.set( i, i );
+        }
+        this.mask = size - 1;
+    }
+
+
+    /**
+     * Add element, called by any thread.
+     *
+     * @param element element to add.
+     * @return false if the buffer is full and the element was not added.
+     */
+    boolean offer( E element ) {
+        long pos = tail.get();
+        for( ;; ) {
+            int slot = (int)( pos & mask );
+            long diff = sequences.get( slot ) - pos;
+            if( diff == 0 ) {
+                if( tail.compareAndSet( pos, pos + 1 ) ) {
+                    slots[ slot ] = element;
+                    sequences.lazySet( slot, pos + 1 );		// publish element
+                    return true;
+                }
+                pos = tail.get();
+            } else if( diff < 0 ) {
+                return false;		// slot not yet released by the consumer: full
+            } else {
+                pos = tail.get();	// slot claimed by another producer
+            }
+        }
+    }
+
+    /**
+     * Take oldest element, called by the consumer thread only.
+     *
+     * @return oldest element, null if the buffer is empty.
+     */
+    @SuppressWarnings( "unchecked" )
+    E poll() {
+        int slot = (int)( head & mask );
+        if( sequences.get( slot ) != head + 1 )
+            return null;
+        E element = (E)slots[ slot ];
+        slots[ slot ] = null;
+        sequences.lazySet( slot, head + slots.length );		// release slot for the next round
+        head++;
+        return element;
+    }
+
+    /**
+     * Return number of slots.
+     *
+     * @return capacity of the buffer.
+     */
+    int capacity() {
+        return slots.length;
+    }
+
+}
@@ -0,0 +1,175 @@
+package de.freerider.restapi;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Records every request in the {@link AccessLog} when its response is complete.
+ *
+ * Latency is measured from entering the filter to completing the response,
+ * for streamed responses (async requests) to the end of the stream. Bytes are
+ * the bytes of the response body before compression.
+ */
+@Component
+@Order( Ordered.HIGHEST_PRECEDENCE )
+class AccessLogFilter extends OncePerRequestFilter {
+
+    private final AccessLog accessLog;
+
+
+    /**
+     * Constructor.
+     *
+     * @param accessLog log requests are recorded in.
+     */
+    AccessLogFilter( AccessLog accessLog ) {
+        this.accessLog = accessLog;
+    }
+
+
+    @Override
+    protected void doFilterInternal( HttpServletRequest request, HttpServletResponse response, FilterChain chain )
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        String method = request.getMethod();
+        String uri = request.getRequestURI();
+        CountingResponse counting = new CountingResponse( response );
+        try {
+            chain.doFilter( request, counting );
+        } catch( IOException | ServletException | RuntimeException e ) {
+            accessLog.record( method, uri, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, System.nanoTime() - start, counting.bytes );
+            throw e;
+        }
+        if( request.isAsyncStarted() ) {
+            request.getAsyncContext().addListener( new AsyncListener() {
+                @Override
+                public void onComplete( AsyncEvent event ) {
+                    accessLog.record( method, uri, counting.getStatus(), System.nanoTime() - start, counting.bytes );
+                }
+
+                @Override
+                public void onStartAsync( AsyncEvent event ) {
+                    event.getAsyncContext().addListener( this );		// listeners are removed when async restarts
+                }
+
+                @Override
+                public void onTimeout( AsyncEvent event ) { }
+
+                @Override
+                public void onError( AsyncEvent event ) { }
+            } );
+        } else {
+            counting.flushWriter();
+            accessLog.record( method, uri, counting.getStatus(), System.nanoTime() - start, counting.bytes );
+        }
+    }
+
+
+    /**
+     * Response that counts the bytes written to its body.
+     */
+    private static final class CountingResponse extends HttpServletResponseWrapper {
+
+        /*
+         * written by the thread writing the response, read after it completed
+         */
+        private volatile long bytes = 0;
+
+        private ServletOutputStream out;
+
+        private PrintWriter writer;
+
+        CountingResponse( HttpServletResponse response ) {
+            super( response );
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if( out == null ) {
+                out = new CountingOutputStream( super.getOutputStream() );
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if( writer == null ) {
+                writer = new PrintWriter( new OutputStreamWriter( getOutputStream(), getCharacterEncoding() ) );
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushWriter();
+            super.flushBuffer();
+        }
+
+        /**
+         * Pass characters buffered by the writer on to the response.
+         */
+        void flushWriter() {
+            if( writer != null ) {
+                writer.flush();
+            }
+        }
+
+        private final class CountingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream target;
+
+            CountingOutputStream( ServletOutputStream target ) {
+                this.target = target;
+            }
+
+            @Override
+            public void write( int b ) throws IOException {
+                target.write( b );
+                bytes++;
+            }
+
+            @Override
+            public void write( byte[] b, int off, int len ) throws IOException {
+                target.write( b, off, len );
+                bytes += len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                target.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                target.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return target.isReady();
+            }
+
+            @Override
+            public void setWriteListener( WriteListener listener ) {
+                target.setWriteListener( listener );
+            }
+        }
+    }
+
+}
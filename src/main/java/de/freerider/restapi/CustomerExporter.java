@@ -0,0 +1,155 @@
+package de.freerider.restapi;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+/**
+ * Export of all customers as newline-delimited JSON (NDJSON) or CSV.
+ *
+ * Customers are read in pages of ascending id with
+ * {@link CustomerRepository#findPage(long, int)}, each page under one read lock,
+ * and written to the output before the next page is read. Writing blocks while
+ * the client does not consume the output, so a slow client holds back reading
+ * from the repository instead of output being buffered. Memory is bounded by the
+ * page size, not the number of customers.
+ *
+ * The export covers the customers stored when it starts: it ends at the highest
+ * id stored at that time. Every customer stored throughout the export is written
+ * exactly once, customers added during the export are not written, customers
+ * deleted before their page was read are omitted.
+ */
+class CustomerExporter {
+
+    /**
+     * Supported output formats.
+     */
+    enum Format {
+        NDJSON, CSV
+    }
+
+    static final int PAGE_SIZE = 1000;
+
+    private static final String CSV_HEADER = "id,firstName,lastName,contacts\r\n";
+
+    private final CustomerRepository customerRepository;
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Constructor.
+     *
+     * @param customerRepository repository to export.
+     * @param jsonFactory        factory for NDJSON generators.
+     */
+    CustomerExporter(CustomerRepository customerRepository, JsonFactory jsonFactory) {
+        this.customerRepository = customerRepository;
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Write all customers to out.
+     *
+     * @param format output format.
+     * @param out    stream to write to, UTF-8.
+     * @throws IOException if writing fails, e.g. the client disconnected.
+     */
+    void run(Format format, OutputStream out) throws IOException {
+        if (format == Format.CSV) {
+            // not closed, the response stream is closed by its owner
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(CSV_HEADER);
+            for (Pages pages = new Pages(); pages.hasNext();) {
+                for (Customer customer : pages.next()) {
+                    writeCsv(customer, writer);
+                }
+                writer.flush();
+            }
+            writer.flush();
+        } else {
+            try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);	// customers are separated by newlines
+                for (Pages pages = new Pages(); pages.hasNext();) {
+                    for (Customer customer : pages.next()) {
+                        CustomerJsonCache.write(customer, generator);
+                        generator.writeRaw('\n');
+                    }
+                    generator.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Pages of customers with ids up to the highest id stored when the export
+     * started.
+     */
+    private final class Pages {
+        private final long lastId = customerRepository.lastId();
+        private long afterId = -1;
+        private List<Customer> page;
+
+        boolean hasNext() {
+            if (page == null && afterId < lastId) {
+                page = customerRepository.findPage(afterId, PAGE_SIZE);
+                page.removeIf(customer -> customer.getId() > lastId);
+                afterId = page.isEmpty() ? lastId : page.get(page.size() - 1).getId();
+            }
+            return page != null && !page.isEmpty();
+        }
+
+        List<Customer> next() {
+            List<Customer> next = page;
+            page = null;
+            return next;
+        }
+    }
+
+    /**
+     * Write customer as CSV record (RFC 4180) with fields id, firstName,
+     * lastName and contacts joined by "; ".
+     */
+    private static void writeCsv(Customer customer, Writer writer) throws IOException {
+        writer.write(Long.toString(customer.getId()));
+        writer.write(',');
+        writeCsvField(customer.getFirstName(), writer);
+        writer.write(',');
+        writeCsvField(customer.getLastName(), writer);
+        writer.write(',');
+        writeCsvField(CustomerJsonCache.contacts(customer), writer);
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write field, quoted if it contains a separator, quote or line break.
+     */
+    private static void writeCsvField(String field, Writer writer) throws IOException {
+        if (field == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (quote) {
+            writer.write('"');
+            writer.write(field.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(field);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package de.freerider.restapi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+/**
+ * Import of customers from newline-delimited JSON (NDJSON), one JSON object
+ * per line with the attributes accepted by POST /customers.
+ *
+ * Lines are parsed one at a time while the request body is read. Valid customers
+ * are collected into batches, each batch is inserted with one call of
+ * {@link CustomerRepository#insertAll(Iterable)}, which rejects ids of stored
+ * customers while the batch's stripes are locked. The result of every line is
+ * written as NDJSON to the response after its batch was saved, followed by a
+ * summary line. Memory is bounded by the batch size, not the size of the import.
+ *
+ * Lines are rejected when they are not a JSON object ("malformed"), lack names or
+ * have an invalid id ("invalid"), or have the id of a stored customer or of an
+ * earlier line of the same batch ("conflict"). Rejected lines do not affect other
+ * lines.
+ */
+class CustomerImporter {
+
+    private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<Map<String, Object>>() {
+    };
+
+    private final CustomerRepository customerRepository;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * creates customer from JSON attributes, empty if attributes are invalid.
+     */
+    private final Function<Map<String, Object>, Optional<Customer>> factory;
+
+    private final int batchSize;
+
+    /**
+     * Pending line of the current batch.
+     */
+    private static final class Line {
+        final long number;
+        final Customer customer;
+        final String rejected;
+
+        Line(long number, Customer customer, String rejected) {
+            this.number = number;
+            this.customer = customer;
+            this.rejected = rejected;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param customerRepository repository customers are imported into.
+     * @param objectMapper       mapper used to parse lines and write results.
+     * @param factory            creates customer from JSON attributes, empty if invalid.
+     * @param batchSize          number of lines per batch.
+     */
+    CustomerImporter(CustomerRepository customerRepository, ObjectMapper objectMapper,
+            Function<Map<String, Object>, Optional<Customer>> factory, int batchSize) {
+        this.customerRepository = customerRepository;
+        this.objectMapper = objectMapper;
+        this.factory = factory;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Import customers from in and write the result of each line to out.
+     *
+     * @param in  NDJSON input, UTF-8.
+     * @param out NDJSON output with one result per non-empty input line.
+     * @throws IOException if reading or writing fails, batches committed before
+     *                     remain saved.
+     */
+    void run(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);	// results are separated by newlines
+            List<Line> batch = new ArrayList<Line>(batchSize);
+            Set<Long> batchIds = new HashSet<Long>();
+            long number = 0;
+            long results = 0;
+            long created = 0;
+            for (String text = reader.readLine(); text != null; text = reader.readLine()) {
+                number++;
+                if (text.isBlank()) {
+                    continue;
+                }
+                batch.add(parse(number, text, batchIds));
+                results++;
+                if (batch.size() == batchSize) {
+                    created += commit(batch, generator);
+                    batch.clear();
+                    batchIds.clear();
+                }
+            }
+            created += commit(batch, generator);
+            long rejected = results - created;
+            generator.writeStartObject();
+            generator.writeNumberField("lines", number);
+            generator.writeNumberField("created", created);
+            generator.writeNumberField("rejected", rejected);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+    }
+
+    /**
+     * Parse and validate one line.
+     */
+    private Line parse(long number, String text, Set<Long> batchIds) {
+        Map<String, Object> attributes;
+        try {
+            attributes = objectMapper.readValue(text, JSON_OBJECT);
+        } catch (JsonProcessingException e) {
+            return new Line(number, null, "malformed");
+        }
+        Optional<Customer> customer = attributes != null ? factory.apply(attributes) : Optional.empty();
+        if (!customer.isPresent()) {
+            return new Line(number, null, "invalid");
+        }
+        long id = customer.get().getId();	// -1 if assigned when saved
+        if (id >= 0 && !batchIds.add(id)) {
+            return new Line(number, null, "conflict");
+        }
+        return new Line(number, customer.get(), null);
+    }
+
+    /**
+     * Save accepted customers of the batch with one bulk call and write the
+     * result of each line.
+     *
+     * @return number of created customers.
+     */
+    private int commit(List<Line> batch, JsonGenerator generator) throws IOException {
+        List<Customer> customers = new ArrayList<Customer>(batch.size());
+        for (Line line : batch) {
+            if (line.customer != null) {
+                customers.add(line.customer);
+            }
+        }
+        // ids of stored customers are rejected by the repository under its lock
+        Set<Long> conflicts = customers.isEmpty() ? Set.of()
+                : new HashSet<Long>(customerRepository.insertAll(customers));
+        for (Line line : batch) {
+            generator.writeStartObject();
+            generator.writeNumberField("line", line.number);
+            if (line.customer != null && conflicts.contains(line.customer.getId())) {
+                generator.writeStringField("status", "rejected");
+                generator.writeStringField("reason", "conflict");
+            } else if (line.customer != null) {
+                generator.writeStringField("status", "created");
+                generator.writeNumberField("id", line.customer.getId());
+            } else {
+                generator.writeStringField("status", "rejected");
+                generator.writeStringField("reason", line.rejected);
+            }
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+        return customers.size() - conflicts.size();
+    }
+
+}
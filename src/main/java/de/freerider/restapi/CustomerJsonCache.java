@@ -0,0 +1,170 @@
+package de.freerider.restapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.stereotype.Component;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+/**
+ * Cache of the serialized UTF-8 JSON of customers, GET requests copy cached
+ * bytes to the response instead of serializing customers on every request.
+ *
+ * Entries are created on first read and invalidated through the repository
+ * listener whenever a stored customer changes (setName(), addContact(),
+ * setStatus(), ...) or is saved or deleted.
+ *
+ * The repository reports a change after the customer was modified. An entry
+ * computed concurrently from the old attributes is therefore removed when the
+ * change is reported, compute() and remove() of the same id are serialized by
+ * the map. Entries remember the customer instance they were computed from, so a
+ * reader holding a customer that was replaced under the same id cannot serve its
+ * bytes for the replacement.
+ */
+@Component
+class CustomerJsonCache implements CustomerRepository.Listener {
+
+    /**
+     * serialized JSON of a customer instance.
+     */
+    private static final class Entry {
+        final Customer customer;
+        final byte[] json;
+
+        Entry(Customer customer, byte[] json) {
+            this.customer = customer;
+            this.json = json;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Entry> cache = new ConcurrentHashMap<Long, Entry>();
+
+    private final CustomerRepository customerRepository;
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Constructor.
+     *
+     * @param customerRepository repository whose customers are cached.
+     * @param objectMapper       mapper that provides the JSON factory.
+     */
+    CustomerJsonCache(CustomerRepository customerRepository, ObjectMapper objectMapper) {
+        this.customerRepository = customerRepository;
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    @PostConstruct
+    void register() {
+        customerRepository.addListener(this);
+    }
+
+    /**
+     * Return serialized JSON object of customer, serialize and cache it when
+     * it is not cached.
+     *
+     * @param customer stored customer.
+     * @return UTF-8 bytes of the JSON object, must not be modified.
+     */
+    byte[] get(Customer customer) {
+        Entry entry = cache.get(customer.getId());
+        if (entry == null || entry.customer != customer) {
+            entry = cache.compute(customer.getId(),
+                    (id, e) -> e != null && e.customer == customer ? e : new Entry(customer, serialize(customer)));
+        }
+        return entry.json;
+    }
+
+    /**
+     * Write customers as JSON array from cached bytes.
+     *
+     * @param customers stored customers.
+     * @param out       stream to write to.
+     * @throws IOException if writing fails.
+     */
+    void writeArray(Iterable<Customer> customers, OutputStream out) throws IOException {
+        out.write('[');
+        boolean first = true;
+        for (Customer customer : customers) {
+            if (!first) {
+                out.write(',');
+            }
+            out.write(get(customer));
+            first = false;
+        }
+        out.write(']');
+    }
+
+    /**
+     * Return number of cached customers.
+     *
+     * @return number of cached customers.
+     */
+    int size() {
+        return cache.size();
+    }
+
+    @Override
+    public void saved(Customer customer) {
+        cache.remove(customer.getId());
+    }
+
+    @Override
+    public void deleted(long id) {
+        cache.remove(id);
+    }
+
+    @Override
+    public void cleared() {
+        cache.clear();
+    }
+
+    /**
+     * Serialize customer as JSON object.
+     */
+    private byte[] serialize(Customer customer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (JsonGenerator generator = jsonFactory.createGenerator(bytes)) {
+            write(customer, generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write customer as JSON object with fields id, firstName, lastName and
+     * contacts joined by "; ".
+     *
+     * @param customer  customer to write.
+     * @param generator generator to write to.
+     * @throws IOException if writing fails.
+     */
+    static void write(Customer customer, JsonGenerator generator) throws IOException {
+        CustomerProjection.ALL.write(customer, generator);
+    }
+
+    /**
+     * Return contacts of customer joined by "; ".
+     *
+     * @param customer customer.
+     * @return joined contacts, empty String if customer has no contacts.
+     */
+    static String contacts(Customer customer) {
+        StringBuilder sb = new StringBuilder();
+        customer.getContacts().forEach(contact -> sb.append(sb.length() == 0 ? "" : "; ").append(contact));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,122 @@
+package de.freerider.restapi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import de.freerider.datamodel.Customer;
+
+/**
+ * Projection of customers to a subset of their fields, selected with query
+ * parameter {@code fields}, e.g. {@code GET /customers?fields=id,lastName}.
+ *
+ * A projection is compiled once per distinct set of fields into the writers of
+ * its fields and cached, the order of fields in the parameter does not matter.
+ * Writing a customer calls only the getters of the selected fields, fields are
+ * written in the order id, firstName, lastName, contacts.
+ */
+final class CustomerProjection {
+
+    /**
+     * Writes one field of a customer.
+     */
+    private interface FieldWriter {
+        void write(Customer customer, JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Fields of the customer representation.
+     */
+    enum Field {
+        id((customer, generator) -> generator.writeNumberField("id", customer.getId())),
+        firstName((customer, generator) -> generator.writeStringField("firstName", customer.getFirstName())),
+        lastName((customer, generator) -> generator.writeStringField("lastName", customer.getLastName())),
+        contacts((customer, generator) -> generator.writeStringField("contacts", CustomerJsonCache.contacts(customer)));
+
+        private final FieldWriter writer;
+
+        Field(FieldWriter writer) {
+            this.writer = writer;
+        }
+    }
+
+    private static final ConcurrentHashMap<EnumSet<Field>, CustomerProjection> projections =
+            new ConcurrentHashMap<EnumSet<Field>, CustomerProjection>();
+
+    /**
+     * Projection to all fields, the representation without {@code fields} parameter.
+     */
+    static final CustomerProjection ALL = compile(EnumSet.allOf(Field.class));
+
+    private final FieldWriter[] writers;
+
+    private final String tag;
+
+    private CustomerProjection(EnumSet<Field> fields) {
+        List<FieldWriter> writers = new ArrayList<FieldWriter>();
+        StringBuilder tag = new StringBuilder();
+        for (Field field : fields) {
+            writers.add(field.writer);
+            tag.append(tag.length() == 0 ? "" : ".").append(field.ordinal());
+        }
+        this.writers = writers.toArray(new FieldWriter[0]);
+        this.tag = tag.toString();
+    }
+
+    /**
+     * Return projection to the comma-separated fields, e.g. "id,lastName".
+     *
+     * @param fields comma-separated field names, null for all fields.
+     * @return projection or empty if fields is empty or contains an unknown field.
+     */
+    static Optional<CustomerProjection> of(String fields) {
+        if (fields == null) {
+            return Optional.of(ALL);
+        }
+        EnumSet<Field> selected = EnumSet.noneOf(Field.class);
+        for (String name : fields.split(",")) {
+            try {
+                selected.add(Field.valueOf(name.trim()));
+            } catch (IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        }
+        return selected.isEmpty() ? Optional.empty() : Optional.of(compile(selected));
+    }
+
+    private static CustomerProjection compile(EnumSet<Field> fields) {
+        CustomerProjection projection = projections.get(fields);
+        return projection != null ? projection : projections.computeIfAbsent(fields, CustomerProjection::new);
+    }
+
+    /**
+     * Return tag that distinguishes the projection in ETags, e.g. "0.2" for
+     * fields id and lastName.
+     *
+     * @return tag of the projection.
+     */
+    String tag() {
+        return tag;
+    }
+
+    /**
+     * Write selected fields of customer as object.
+     *
+     * @param customer  customer to write.
+     * @param generator generator to write to.
+     * @throws IOException if writing fails.
+     */
+    void write(Customer customer, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        for (FieldWriter writer : writers) {
+            writer.write(customer, generator);
+        }
+        generator.writeEndObject();
+    }
+
+}
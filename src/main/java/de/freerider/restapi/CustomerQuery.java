@@ -0,0 +1,674 @@
+package de.freerider.restapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import de.freerider.datamodel.ColognePhonetic;
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+/**
+ * Filter and sort expressions of {@code GET /customers}, compiled from the raw
+ * query string, e.g.
+ * <pre>{@code
+ * GET /customers?status=Active&lastName^=B&sort=lastName,-id
+ * }</pre>
+ * A condition is a field, an operator and a value:
+ * <pre>{@code
+ * field       operators
+ * - id        =  !=  <  <=  >  >=
+ * - lastName  =  !=  ^= (starts with)  ~= (sounds like, Kölner Phonetik)
+ * - firstName =  !=  ^=  ~=
+ * - status    =  !=
+ * - contact   =  (e-mail or phone number)
+ * }</pre>
+ * Names are compared ignoring case, conditions are combined with "and".
+ * {@code sort} takes comma-separated fields id, firstName, lastName or status,
+ * descending with prefix "-". Ties are ordered by id. {@code phonetic=true}
+ * (or yes, on, 1) turns name conditions "=" into "~=". Parameters limit,
+ * cursor and fields are left to the controller.
+ *
+ * A query is compiled into a plan once: the condition answered by the most
+ * selective repository index provides the candidates, all other conditions
+ * become predicates applied to them. Only a query without indexed conditions
+ * scans all customers, in parallel. Plans are cached by their filter and sort
+ * terms, so repeated queries and further pages of a query skip parsing. The
+ * cache keeps the {@value #MAX_CACHED} most recently used plans.
+ *
+ * Pages are keyset pages: the cursor holds the sort key and id of the last
+ * customer of a page, the next page starts after that key. Pages of
+ * unsorted queries are in id order and stop when the page is full: scans
+ * fetch chunks in id order, index lookups in id order are visited from the
+ * cursor on (the lookup itself still copies all its matches). Sorted pages and pages of lookups in another order (name
+ * prefixes) must visit all matches to find the first page in sort order,
+ * their cost grows with the number of matches, not with the page size; only
+ * the customers of one page are kept.
+ * Cursors are tagged with their kind and sort order, a cursor of another
+ * kind of query is rejected.
+ */
+final class CustomerQuery {
+
+    /**
+     * maximum number of cached plans, the least recently used plan is evicted.
+     */
+    private static final int MAX_CACHED = 1024;
+
+    private static final Map<String, CustomerQuery> plans = Collections.synchronizedMap(
+            new LinkedHashMap<String, CustomerQuery>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CustomerQuery> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            });
+
+    /**
+     * parameters that are not filter conditions.
+     */
+    private static final Set<String> PAGING = Set.of("limit", "cursor", "fields");
+
+    /**
+     * kinds of cursors, first byte of a cursor.
+     */
+    private static final byte ID_CURSOR = 'i';
+
+    private static final byte SORT_CURSOR = 's';
+
+    /**
+     * customers fetched at a time by scans in id order.
+     */
+    private static final int SCAN_CHUNK = 1024;
+
+    /**
+     * Query without conditions and sort order, all customers.
+     */
+    static final CustomerQuery ALL = new CustomerQuery(List.of(), null, null);
+
+    /**
+     * operators, longer operators before their prefixes.
+     */
+    enum Operator {
+        NE("!="), PREFIX("^="), SOUNDS("~="), LE("<="), GE(">="), EQ("="), LT("<"), GT(">");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    /**
+     * Fields of conditions and sort keys with the operators they support.
+     */
+    enum Field {
+        id(EnumSet.of(Operator.EQ, Operator.NE, Operator.LT, Operator.LE, Operator.GT, Operator.GE),
+                Comparator.comparingLong(Customer::getId)),
+        firstName(EnumSet.of(Operator.EQ, Operator.NE, Operator.PREFIX, Operator.SOUNDS),
+                Comparator.comparing(Customer::getFirstName, String.CASE_INSENSITIVE_ORDER)),
+        lastName(EnumSet.of(Operator.EQ, Operator.NE, Operator.PREFIX, Operator.SOUNDS),
+                Comparator.comparing(Customer::getLastName, String.CASE_INSENSITIVE_ORDER)),
+        status(EnumSet.of(Operator.EQ, Operator.NE),
+                Comparator.comparing(Customer::getStatus, Comparator.nullsFirst(Comparator.naturalOrder()))),
+        contact(EnumSet.of(Operator.EQ), null);
+
+        private final Set<Operator> operators;
+
+        private final Comparator<Customer> order;
+
+        Field(Set<Operator> operators, Comparator<Customer> order) {
+            this.operators = operators;
+            this.order = order;
+        }
+    }
+
+    /**
+     * Compiled condition. Conditions answered by an index have a rank, lower
+     * ranks are more selective, and a lookup that returns the matching customers,
+     * in id order unless the condition is unordered.
+     */
+    private static final class Condition {
+        final Predicate<Customer> predicate;
+        final int rank;
+        final Function<CustomerRepository, Iterable<Customer>> lookup;
+        final boolean unordered;
+
+        Condition(Predicate<Customer> predicate, int rank, Function<CustomerRepository, Iterable<Customer>> lookup) {
+            this(predicate, rank, lookup, false);
+        }
+
+        Condition(Predicate<Customer> predicate, int rank, Function<CustomerRepository, Iterable<Customer>> lookup,
+                boolean unordered) {
+            this.predicate = predicate;
+            this.rank = rank;
+            this.lookup = lookup;
+            this.unordered = unordered;
+        }
+
+        boolean indexed() {
+            return lookup != null;
+        }
+    }
+
+    /**
+     * conditions, indexed conditions first in order of their rank.
+     */
+    private final List<Condition> conditions;
+
+    /**
+     * sort order, null for the order of the index or repository.
+     */
+    private final Comparator<Customer> order;
+
+    /**
+     * sort fields as given, e.g. "lastName,-id", null without sort order.
+     */
+    private final String sort;
+
+    private CustomerQuery(List<Condition> conditions, Comparator<Customer> order, String sort) {
+        this.conditions = conditions;
+        this.order = order;
+        this.sort = sort;
+    }
+
+    /**
+     * Return compiled query of a raw query string, from the cache if the same
+     * conditions and sort order were compiled before.
+     *
+     * @param queryString raw (URL-encoded) query string of the request, may be null.
+     * @return query or empty if the query string has an unknown field, operator or invalid value.
+     */
+    static Optional<CustomerQuery> of(String queryString) {
+        if (queryString == null || queryString.isEmpty()) {
+            return Optional.of(ALL);
+        }
+        List<String> terms = new ArrayList<String>();
+        for (String term : queryString.split("&")) {
+            int end = term.indexOf('=');
+            if (!term.isEmpty() && !PAGING.contains(end < 0 ? term : term.substring(0, end))) {
+                terms.add(term);
+            }
+        }
+        if (terms.isEmpty()) {
+            return Optional.of(ALL);
+        }
+        String key = String.join("&", terms);
+        CustomerQuery query = plans.get(key);
+        if (query == null) {
+            query = compile(terms);
+            if (query == null) {
+                return Optional.empty();
+            }
+            plans.put(key, query);
+        }
+        return Optional.of(query);
+    }
+
+    /**
+     * Return number of cached plans.
+     */
+    static int cached() {
+        return plans.size();
+    }
+
+    /**
+     * Test whether the query has conditions.
+     *
+     * @return true if the query has conditions.
+     */
+    boolean isFiltered() {
+        return !conditions.isEmpty();
+    }
+
+    /**
+     * Test whether the query has a sort order.
+     *
+     * @return true if results are sorted by the query.
+     */
+    boolean isSorted() {
+        return order != null;
+    }
+
+    /**
+     * Run query: candidates are fetched from the index of the first indexed
+     * condition or, without indexed conditions, all customers are scanned in
+     * parallel.
+     *
+     * @param repository repository to query.
+     * @return matching customers, sorted if the query has a sort order.
+     */
+    List<Customer> find(CustomerRepository repository) {
+        List<Customer> result = new ArrayList<Customer>();
+        visit(repository, result::add);
+        if (order != null) {
+            result.sort(order);
+        }
+        return result;
+    }
+
+    /**
+     * Return page of matching customers after the customer a cursor points to,
+     * in sort order or, for unsorted queries, in id order. Queries without
+     * indexed condition and sort order walk the repository in id order until
+     * limit customers matched. Unsorted queries driven by a lookup in id order
+     * visit the lookup from the cursor until limit customers matched. Otherwise
+     * all matches are visited and only the first limit customers in page order
+     * are kept, which costs O(matches).
+     *
+     * @param repository repository to query.
+     * @param after customer decoded from the cursor of the previous page, null for the first page.
+     * @param limit maximum number of customers of the page.
+     * @return customers of the page.
+     */
+    List<Customer> page(CustomerRepository repository, Customer after, int limit) {
+        if (order == null && (conditions.isEmpty() || !conditions.get(0).indexed())) {
+            List<Predicate<Customer>> predicates = predicates(repository, conditions);
+            int chunkSize = predicates.isEmpty() ? limit : Math.max(limit, SCAN_CHUNK);
+            long afterId = after != null ? after.getId() : -1L;
+            List<Customer> page = new ArrayList<Customer>(Math.min(limit, SCAN_CHUNK));
+            for (;;) {
+                List<Customer> chunk = repository.findPage(afterId, chunkSize);
+                for (Customer customer : chunk) {
+                    if (matches(customer, predicates)) {
+                        page.add(customer);
+                        if (page.size() == limit) {
+                            return page;
+                        }
+                    }
+                }
+                if (chunk.size() < chunkSize) {
+                    return page;
+                }
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+        }
+        if (order == null && !conditions.get(0).unordered) {
+            List<Predicate<Customer>> predicates = predicates(repository, conditions.subList(1, conditions.size()));
+            long afterId = after != null ? after.getId() : -1L;
+            List<Customer> page = new ArrayList<Customer>(Math.min(limit, SCAN_CHUNK));
+            for (Customer customer : conditions.get(0).lookup.apply(repository)) {
+                if (customer.getId() > afterId && matches(customer, predicates)) {
+                    page.add(customer);
+                    if (page.size() == limit) {
+                        break;
+                    }
+                }
+            }
+            return page;
+        }
+        Comparator<Customer> pageOrder = order != null ? order : Field.id.order;
+        // the worst of the kept customers is at the head
+        PriorityQueue<Customer> top = new PriorityQueue<Customer>(Math.min(limit, SCAN_CHUNK) + 1, pageOrder.reversed());
+        visit(repository, customer -> {
+            if (after == null || pageOrder.compare(customer, after) > 0) {
+                top.add(customer);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+            }
+        });
+        List<Customer> page = new ArrayList<Customer>(top);
+        page.sort(pageOrder);
+        return page;
+    }
+
+    /**
+     * Return cursor of the page that starts after customer, the last customer
+     * of a page of this query.
+     *
+     * @param last last customer of a page.
+     * @return opaque cursor.
+     */
+    String cursor(Customer last) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (order == null) {
+                out.writeByte(ID_CURSOR);
+                out.writeLong(last.getId());
+            } else {
+                out.writeByte(SORT_CURSOR);
+                writeString(out, sort);
+                out.writeLong(last.getId());
+                out.writeByte(last.getStatus() != null ? last.getStatus().ordinal() : -1);
+                writeString(out, last.getFirstName());
+                writeString(out, last.getLastName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * Decode cursor of a page of this query to the customer the next page
+     * starts after. Only the id and the sort keys of the customer are set.
+     *
+     * @param cursor cursor from a previous page.
+     * @return customer or empty if the cursor is malformed or of another kind or sort order.
+     */
+    Optional<Customer> after(String cursor) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            byte kind = in.readByte();
+            Customer customer = new Customer();
+            if (kind == ID_CURSOR && order == null) {
+                customer.setId(in.readLong());
+            } else if (kind == SORT_CURSOR && order != null && readString(in).equals(sort)) {
+                customer.setId(in.readLong());
+                int status = in.readByte();
+                if (status >= Customer.Status.values().length) {
+                    return Optional.empty();
+                }
+                customer.setStatus(status >= 0 ? Customer.Status.values()[status] : null);
+                String first = readString(in);
+                customer.setName(first, readString(in));
+            } else {
+                return Optional.empty();
+            }
+            return in.available() == 0 ? Optional.of(customer) : Optional.empty();
+        } catch (IOException | IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Pass the matching customers to sink.
+     */
+    private void visit(CustomerRepository repository, Consumer<Customer> sink) {
+        boolean indexed = !conditions.isEmpty() && conditions.get(0).indexed();
+        List<Predicate<Customer>> predicates = predicates(repository,
+                indexed ? conditions.subList(1, conditions.size()) : conditions);
+        if (indexed) {
+            for (Customer customer : conditions.get(0).lookup.apply(repository)) {
+                if (matches(customer, predicates)) {
+                    sink.accept(customer);
+                }
+            }
+        } else if (!predicates.isEmpty()) {
+            repository.findAll(customer -> matches(customer, predicates)).forEach(sink);
+        } else {
+            repository.findAll().forEach(sink);
+        }
+    }
+
+    private static List<Predicate<Customer>> predicates(CustomerRepository repository, List<Condition> filters) {
+        // contact has no predicate of its own: members of the indexed result
+        List<Predicate<Customer>> predicates = new ArrayList<Predicate<Customer>>(filters.size());
+        for (Condition condition : filters) {
+            predicates.add(condition.predicate != null ? condition.predicate : members(condition.lookup.apply(repository)));
+        }
+        return predicates;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("malformed cursor");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    private static boolean matches(Customer customer, List<Predicate<Customer>> predicates) {
+        for (Predicate<Customer> predicate : predicates) {
+            if (!predicate.test(customer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Predicate<Customer> members(Iterable<Customer> customers) {
+        Set<Customer> members = Collections.newSetFromMap(new IdentityHashMap<Customer, Boolean>());
+        customers.forEach(members::add);
+        return members::contains;
+    }
+
+    /**
+     * Compile terms of the query string.
+     *
+     * @return query or null if a term is invalid.
+     */
+    private static CustomerQuery compile(List<String> terms) {
+        List<Term> parsed = new ArrayList<Term>(terms.size());
+        for (String term : terms) {
+            Term t = Term.parse(term);
+            if (t == null) {
+                return null;
+            }
+            parsed.add(t);
+        }
+        // phonetic applies to name conditions before and after it
+        boolean phonetic = false;
+        for (Term term : parsed) {
+            if (term.name.equals("phonetic") && term.operator == Operator.EQ) {
+                Boolean flag = flag(term.value);
+                if (flag == null) {
+                    return null;
+                }
+                phonetic = flag;
+            }
+        }
+        List<Condition> conditions = new ArrayList<Condition>();
+        Comparator<Customer> order = null;
+        String sort = null;
+        for (Term term : parsed) {
+            String name = term.name;
+            Operator operator = term.operator;
+            String value = term.value;
+            if (name.equals("phonetic") && operator == Operator.EQ) {
+                continue;
+            }
+            if (name.equals("sort") && operator == Operator.EQ) {
+                order = order(value);
+                sort = value;
+                if (order == null) {
+                    return null;
+                }
+                continue;
+            }
+            Field field;
+            try {
+                field = Field.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            if (operator == Operator.EQ && phonetic && (field == Field.lastName || field == Field.firstName)) {
+                operator = Operator.SOUNDS;
+            }
+            Condition condition = field.operators.contains(operator) ? condition(field, operator, value) : null;
+            if (condition == null) {
+                return null;
+            }
+            conditions.add(condition);
+        }
+        // indexed conditions first, the most selective drives the query
+        conditions.sort(Comparator.comparingInt(condition -> condition.indexed() ? condition.rank : Integer.MAX_VALUE));
+        return new CustomerQuery(conditions, order, sort);
+    }
+
+    /**
+     * Term "name operator value" of the query string.
+     */
+    private static final class Term {
+        final String name;
+        final Operator operator;
+        final String value;
+
+        private Term(String name, Operator operator, String value) {
+            this.name = name;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        /**
+         * Decode and split a term of the raw query string.
+         *
+         * @return term or null if the term is malformed or has no operator.
+         */
+        static Term parse(String term) {
+            String decoded;
+            try {
+                decoded = URLDecoder.decode(term, StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return null;        // malformed %-escape
+            }
+            int end = 0;
+            while (end < decoded.length() && Character.isLetter(decoded.charAt(end))) {
+                end++;
+            }
+            for (Operator op : Operator.values()) {
+                if (decoded.startsWith(op.symbol, end)) {
+                    return new Term(decoded.substring(0, end), op, decoded.substring(end + op.symbol.length()).trim());
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Parse boolean parameter value like Spring's request parameter conversion.
+     *
+     * @return flag or null if value is not true, on, yes, 1, false, off, no or 0.
+     */
+    private static Boolean flag(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+        case "true":
+        case "on":
+        case "yes":
+        case "1":
+            return true;
+        case "false":
+        case "off":
+        case "no":
+        case "0":
+            return false;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Compile sort order, e.g. "lastName,-id", ties ordered by id.
+     *
+     * @return comparator or null if no field is given or a field is unknown or not sortable.
+     */
+    private static Comparator<Customer> order(String fields) {
+        Comparator<Customer> order = null;
+        for (String name : fields.split(",")) {
+            String key = name.trim();
+            boolean descending = key.startsWith("-");
+            Field field;
+            try {
+                field = Field.valueOf(descending ? key.substring(1) : key);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            if (field.order == null) {
+                return null;
+            }
+            Comparator<Customer> next = descending ? field.order.reversed() : field.order;
+            order = order == null ? next : order.thenComparing(next);
+        }
+        return order != null ? order.thenComparing(Field.id.order) : null;
+    }
+
+    /**
+     * Compile condition "field operator value".
+     *
+     * @return condition or null if value is invalid for field.
+     */
+    private static Condition condition(Field field, Operator operator, String value) {
+        switch (field) {
+        case id:
+            long id;
+            try {
+                id = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            switch (operator) {
+            case EQ:
+                return new Condition(c -> c.getId() == id, 0, r -> r.findById(id).map(List::of).orElse(List.of()));
+            case NE:
+                return new Condition(c -> c.getId() != id, 0, null);
+            case LT:
+                return new Condition(c -> c.getId() < id, 0, null);
+            case LE:
+                return new Condition(c -> c.getId() <= id, 0, null);
+            case GT:
+                return new Condition(c -> c.getId() > id, 0, null);
+            default:
+                return new Condition(c -> c.getId() >= id, 0, null);
+            }
+        case contact:
+            return new Condition(null, 1, r -> r.findByContact(value));
+        case status:
+            Customer.Status status;
+            try {
+                status = Customer.Status.valueOf(value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            return operator == Operator.EQ
+                    ? new Condition(c -> c.getStatus() == status, 5, r -> r.findByStatus(status))
+                    : new Condition(c -> c.getStatus() != status, 0, null);
+        default:
+            return nameCondition(field == Field.lastName, operator, value);
+        }
+    }
+
+    private static Condition nameCondition(boolean last, Operator operator, String value) {
+        Function<Customer, String> name = last ? Customer::getLastName : Customer::getFirstName;
+        String normalized = normalize(value);
+        switch (operator) {
+        case EQ:
+            return new Condition(c -> normalize(name.apply(c)).equals(normalized), 2,
+                    last ? r -> r.findByLastName(value) : r -> r.findByFirstName(value));
+        case NE:
+            return new Condition(c -> !normalize(name.apply(c)).equals(normalized), 0, null);
+        case SOUNDS:
+            String code = ColognePhonetic.encode(value);
+            Function<Customer, String> phonetic = last ? Customer::getLastNamePhonetic : Customer::getFirstNamePhonetic;
+            return new Condition(c -> !code.isEmpty() && phonetic.apply(c).equals(code), 3,
+                    last ? r -> r.findByLastNamePhonetic(value) : r -> r.findByFirstNamePhonetic(value));
+        default:
+            // the index holds non-empty names only, an empty prefix matches all customers
+            // customers with a prefix are grouped by name, not in id order
+            return new Condition(c -> normalize(name.apply(c)).startsWith(normalized), 4, normalized.isEmpty() ? null
+                    : last ? r -> r.findByLastNamePrefix(value) : r -> r.findByFirstNamePrefix(value), true);
+        }
+    }
+
+    /**
+     * Normalize name like the name indexes of the repository.
+     */
+    private static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+}
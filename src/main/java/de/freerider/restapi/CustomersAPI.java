@@ -1,5 +1,6 @@
 package de.freerider.restapi;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -8,10 +9,19 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerStats;
 
 import io.swagger.annotations.ApiParam;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.Parameters;
+import io.swagger.v3.oas.annotations.enums.ParameterIn;
 import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
@@ -23,15 +33,30 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
  * Operations provided by the endpoint:
  * 
  * - GET /customers			- return JSON data for all customer in the repository,
- * 							  status: 200 OK.
+ * 							  optionally filtered by lastName, firstName (exact or
+ * 							  phonetic), status and contact, paged with limit and cursor, projected
+ * 							  to fields,
+ * 							  status: 200 OK, 304 not modified, 400 bad request.
+ * 
+ * - GET /customers/export	- export all customers as NDJSON or CSV, streamed,
+ * 							  status: 200 OK, 400 bad request.
  * 
- * - GET /customers/{id}	- return JSON data for customer with id,
- * 							  status: 200 OK, 404 not found.
+ * - GET /customers/search	- return customers best matching partial names, e.g. ?q=Schul,
+ * 							  projected to fields,
+ * 							  status: 200 OK, 304 not modified, 400 bad request.
+ * 
+ * - GET /customers/{id}	- return JSON data for customer with id, projected to fields,
+ * 							  status: 200 OK, 304 not modified, 404 not found,
+ * 							  400 bad request.
  * 
  * - POST /customers		- create new objects in the repository from JSON objects
  * 							  passed with the request,
  * 							  status: 201 created, 409 conflict, 400 bad request.
  * 
+ * - POST /customers/import	- bulk import of customers from newline-delimited JSON,
+ * 							  results are streamed per line,
+ * 							  status: 200 OK, 400 bad request.
+ * 
  * - PUT /customers			- updated existing objects in the repository from JSON
  * 							  objects passed with the request,
  * 							  status: 202 accepted, 404 not found, 400 bad request.
@@ -54,7 +79,50 @@ public interface CustomersAPI {
 	/**
 	 * GET /customers
 	 * 
-	 * @return JSON Array with customers (compact).
+	 * Customers can be filtered with optional query parameters, e.g.
+	 * {@code GET /customers?lastName=Meyer&status=Active}. Filters are answered
+	 * from repository indexes, names are compared ignoring case. Customers are
+	 * matched by contact with {@code GET /customers?contact=eric98@yahoo.com},
+	 * phone numbers are compared by their digits.
+	 * 
+	 * With {@code phonetic=true} names are matched by how they sound in German
+	 * (Kölner Phonetik), e.g. {@code GET /customers?lastName=Maier&phonetic=true}
+	 * also returns customers named Meyer or Mayer, Schulz-Mueller matches
+	 * Schulz-Müller.
+	 * 
+	 * Large collections are fetched in pages in id order, or in the order of
+	 * {@code sort}, with {@code limit} (default 100, at most 1000) and an opaque
+	 * {@code cursor}. The response of a page carries the cursor of the next page in
+	 * header {@code X-Next-Cursor}, which is missing on the last page, e.g.
+	 * {@code GET /customers?limit=500&cursor=aQAAAAAAAAH0}. A cursor is only valid
+	 * for the same filters and sort order. Pages stay consistent while customers
+	 * are added or deleted.
+	 * 
+	 * Responses carry an ETag, a request with a matching {@code If-None-Match}
+	 * header is answered with 304 (not modified) while the repository is unchanged.
+	 * 
+	 * Customers are returned as JSON or, with header {@code Accept: application/cbor}
+	 * or {@code Accept: application/x-jackson-smile}, in the binary formats CBOR or
+	 * Smile with the same fields. Fields can be selected with {@code fields}, e.g.
+	 * {@code GET /customers?fields=id,lastName} returns only id and lastName of each
+	 * customer. Responses are compressed with gzip for clients
+	 * sending {@code Accept-Encoding: gzip} (property server.compression).
+	 * 
+	 * Beyond equality, filters are expressions with operators in the query string,
+	 * e.g. {@code GET /customers?status=Active&lastName^=B&sort=lastName,-id}:
+	 * {@code != < <= > >=} for id, {@code != ^=} (starts with) and {@code ~=}
+	 * (sounds like) for names, {@code !=} for status. {@code sort} orders by
+	 * comma-separated fields, descending with prefix "-". Queries are compiled
+	 * once and cached, filters are answered by the most selective index.
+	 * 
+	 * Filters lastName, firstName, status, contact, phonetic and sort are read
+	 * from the raw query string, which also carries their operators, they are
+	 * documented as query parameters of the operation.
+	 * 
+	 * @param limit optional maximum number of customers per page.
+	 * @param cursor optional cursor of the page from header X-Next-Cursor of the previous page.
+	 * @param fields optional comma-separated fields to return (id, firstName, lastName, contacts).
+	 * @return JSON Array with customers (compact), streamed to the client.
 	 */
 
 	/*
@@ -66,12 +134,26 @@ public interface CustomersAPI {
 		tags={ "customers-controller" }	// appears in swagger-ui URL: http://localhost:8080/swagger-ui/index.html#/customers-controller
 	)
 	@ApiResponses( value = {	// also auto-derived by Swagger
-		@ApiResponse( responseCode = "200", description = "OK", content = @Content(mediaType = "application/json")),
+		@ApiResponse( responseCode = "200", description = "OK", content = {
+			@Content(mediaType = "application/json"), @Content(mediaType = "application/cbor"),
+			@Content(mediaType = "application/x-jackson-smile") }),
+		@ApiResponse( responseCode = "304", description = "Not Modified"),
+		@ApiResponse( responseCode = "400", description = "Bad Request, invalid filter, sort, limit, cursor or fields"),
 		@ApiResponse( responseCode = "401", description = "Unauthorized"),
 		@ApiResponse( responseCode = "403", description = "Forbidden"),
 		// to remove "404" from docs, set SwaggerConfig::Docket.useDefaultResponseMessages(true) // ->false
 //		@ApiResponse( responseCode = "404", description = "Not Found")
 	})
+	@Parameters( value = {	// filters are parsed from the query string, see CustomerQuery
+		@Parameter( name = "lastName", in = ParameterIn.QUERY, description = "Filter by lastName" ),
+		@Parameter( name = "firstName", in = ParameterIn.QUERY, description = "Filter by firstName" ),
+		@Parameter( name = "status", in = ParameterIn.QUERY, description = "Filter by status",
+			schema = @Schema( implementation = Customer.Status.class ) ),
+		@Parameter( name = "contact", in = ParameterIn.QUERY, description = "Filter by contact (e-mail or phone)" ),
+		@Parameter( name = "phonetic", in = ParameterIn.QUERY, description = "Match lastName and firstName by sound (Kölner Phonetik)",
+			schema = @Schema( implementation = Boolean.class ) ),
+		@Parameter( name = "sort", in = ParameterIn.QUERY, description = "Sort by comma-separated fields: id, firstName, lastName, status, prefix \"-\" for descending" )
+	})
 
 	/*
 	 * Spring REST Controller annotation:
@@ -79,15 +161,176 @@ public interface CustomersAPI {
 	@RequestMapping(
 		method = RequestMethod.GET,
 		value = "",	// relative to interface @RequestMapping
-		produces = { "application/json" }
+		produces = { "application/json", "application/cbor", "application/x-jackson-smile" }
 	)
 	//
-	ResponseEntity<List<?>> getCustomers();
+	ResponseEntity<StreamingResponseBody> getCustomers(
+		@RequestParam( value = "limit", required = false )
+		@ApiParam( value = "Page size, 1 to 1000" )
+		Integer limit,
+		//
+		@RequestParam( value = "cursor", required = false )
+		@ApiParam( value = "Cursor of the page, from header X-Next-Cursor" )
+		String cursor,
+		//
+		@RequestParam( value = "fields", required = false )
+		@ApiParam( value = "Comma-separated fields to return: id, firstName, lastName, contacts" )
+		String fields
+	);
+
+
+	/**
+	 * GET /customers/export
+	 * 
+	 * Export all customers as newline-delimited JSON ({@code format=ndjson}, default,
+	 * one JSON object per line as returned by GET /customers) or as CSV with header
+	 * line ({@code format=csv}). The export is streamed in id order while customers
+	 * are read from the repository, a slow client slows down reading. Memory use does
+	 * not depend on the number of customers.
+	 * 
+	 * The export includes customers stored when it starts, customers added during
+	 * the export are not included.
+	 * 
+	 * @param format optional output format, ndjson or csv.
+	 * @return NDJSON or CSV with all customers, streamed to the client.
+	 */
+
+	/*
+	 * Swagger API doc annotations:
+	 */
+	@Operation(
+		summary = "Export all customers as NDJSON or CSV.",
+		description = "Export all customers as NDJSON or CSV.",
+		tags={ "customers-controller" }
+	)
+	@ApiResponses( value = {
+		@ApiResponse( responseCode = "200", description = "OK", content = {
+			@Content(mediaType = "application/x-ndjson"), @Content(mediaType = "text/csv") }),
+		@ApiResponse( responseCode = "400", description = "Bad Request, unknown format"),
+	})
+
+	/*
+	 * Spring REST Controller annotation:
+	 */
+	@RequestMapping(
+		method = RequestMethod.GET,
+		value = "export"	// relative to interface @RequestMapping
+	)
+	//
+	ResponseEntity<StreamingResponseBody> exportCustomers(
+		@RequestParam( value = "format", required = false )
+		@ApiParam(value = "Output format: ndjson (default) or csv", required = false)
+		String format
+	);
+
+
+	/**
+	 * GET /customers/search
+	 * 
+	 * Search customers by partial first or last names as typed into a search
+	 * box, e.g. {@code GET /customers/search?q=Schul} or {@code q=eric mey}. Every
+	 * word of {@code q} must occur in the first or last name, words of one or two
+	 * characters must start a name. Words are separated by whitespace or
+	 * punctuation, e.g. {@code q=Meyer, Eric}. The best {@code limit} matches
+	 * (default 10, at most 100) are returned: exact names before name prefixes
+	 * before other substrings, ties by the shorter, then alphabetically first
+	 * matching name, then in order of saving. The search runs on an in-memory index of names that
+	 * follows every change of the repository.
+	 * 
+	 * Representation, {@code fields} and ETag behave as for GET /customers.
+	 * 
+	 * @param q words to search for, case is ignored.
+	 * @param limit optional maximum number of customers returned.
+	 * @param fields optional comma-separated fields to return (id, firstName, lastName, contacts).
+	 * @return JSON Array with best matching customers, best match first.
+	 */
+
+	/*
+	 * Swagger API doc annotations:
+	 */
+	@Operation(
+		summary = "Search customers by partial names.",
+		description = "Search customers by partial names.",
+		tags={ "customers-controller" }
+	)
+	@ApiResponses( value = {
+		@ApiResponse( responseCode = "200", description = "OK", content = {
+			@Content(mediaType = "application/json"), @Content(mediaType = "application/cbor"),
+			@Content(mediaType = "application/x-jackson-smile") }),
+		@ApiResponse( responseCode = "304", description = "Not Modified"),
+		@ApiResponse( responseCode = "400", description = "Bad Request, empty q, invalid limit or fields"),
+	})
+
+	/*
+	 * Spring REST Controller annotation:
+	 */
+	@RequestMapping(
+		method = RequestMethod.GET,
+		value = "search",	// relative to interface @RequestMapping
+		produces = { "application/json", "application/cbor", "application/x-jackson-smile" }
+	)
+	//
+	ResponseEntity<StreamingResponseBody> searchCustomers(
+		@RequestParam( value = "q" )
+		@ApiParam( value = "Partial first or last names, separated by spaces or punctuation", required = true )
+		String q,
+		//
+		@RequestParam( value = "limit", required = false )
+		@ApiParam( value = "Maximum number of customers, 1 to 100" )
+		Integer limit,
+		//
+		@RequestParam( value = "fields", required = false )
+		@ApiParam( value = "Comma-separated fields to return: id, firstName, lastName, contacts" )
+		String fields
+	);
+
+
+	/**
+	 * GET /customers/stats
+	 * 
+	 * Return the number of customers, customers per status, customers without
+	 * contacts and the distribution of contacts per customer, e.g. for an ops
+	 * dashboard. The repository keeps counters up to date with every change,
+	 * the response takes constant time regardless of the number of customers.
+	 * 
+	 * @return JSON Object with statistics of the repository.
+	 */
+
+	/*
+	 * Swagger API doc annotations:
+	 */
+	@Operation(
+		summary = "Return customer statistics.",
+		description = "Return customer statistics.",
+		tags={ "customers-controller" }
+	)
+	@ApiResponses( value = {
+		@ApiResponse( responseCode = "200", description = "OK", content = {
+			@Content(mediaType = "application/json") }),
+	})
+
+	/*
+	 * Spring REST Controller annotation:
+	 */
+	@RequestMapping(
+		method = RequestMethod.GET,
+		value = "stats",	// relative to interface @RequestMapping
+		produces = "application/json"
+	)
+	//
+	ResponseEntity<CustomerStats> getStats();
 
 
 	/**
 	 * GET /customers/{id}
 	 * 
+	 * The ETag of the response is the version of the customer, a request with a
+	 * matching {@code If-None-Match} header is answered with 304 (not modified).
+	 * The customer is returned as JSON, CBOR or Smile depending on the Accept header,
+	 * with the fields selected by {@code fields} (all fields by default).
+	 * 
+	 * @param id id of customer.
+	 * @param fields optional comma-separated fields to return (id, firstName, lastName, contacts).
 	 * @return JSON Array with customers (compact).
 	 */
 
@@ -106,13 +349,17 @@ public interface CustomersAPI {
 	@RequestMapping(
 		method=RequestMethod.GET,
 		value="{id}",	// relative to interface @RequestMapping
-		produces={ "application/json" }
+		produces={ "application/json", "application/cbor", "application/x-jackson-smile" }
 	)
 	//
 	ResponseEntity<?> getCustomer(
 		@PathVariable("id")
 		@ApiParam(value = "Customer id", required = true)
-		long id
+		long id,
+		//
+		@RequestParam( value = "fields", required = false )
+		@ApiParam( value = "Comma-separated fields to return: id, firstName, lastName, contacts" )
+		String fields
 	);
 
 
@@ -123,12 +370,13 @@ public interface CustomersAPI {
 	 * Multiple customers can be posted with multiple JSON objects from the same request.
 	 * Id's are assigned, if id-attributes are missing or are empty in JSON data.
 	 * 
-	 * JSON data containing id of objects that are already present are rejected. Rejected
-	 * objects are returned in the response with error 409 (conflict).
+	 * JSON data containing id of objects that are already present, id's repeated within the
+	 * request or objects without names are rejected. Rejected objects are returned in the
+	 * response with error 409 (conflict).
 	 * 
 	 * Status 201 (created) is returned with empty array of conflicts when all objects were
-	 * accepted. Partial acceptance of objects from the request is possible, but error 409 is
-	 * returned with the array of rejected objects.
+	 * accepted. Partial acceptance of objects from the request is possible, accepted objects
+	 * are saved, but error 409 is returned with the array of rejected objects.
 	 * 
 	 * @param jsonMap array of maps with raw JSON {@code <key,obj>}-data.
 	 * @return JSON array with the rejected JSON objects, empty array [] if all objects were accepted.
@@ -154,6 +402,61 @@ public interface CustomersAPI {
 	public ResponseEntity<List<?>> postCustomers( @RequestBody Map<String, Object>[] jsonMap );
 
 
+	/**
+	 * POST /customers/import
+	 * 
+	 * Bulk import of customers from newline-delimited JSON (content type
+	 * {@code application/x-ndjson}), one JSON object per line with the attributes
+	 * accepted by POST /customers. The request body is parsed while it is received,
+	 * lines are validated and saved in batches of {@code batchSize} lines (default
+	 * from property app.api.import.batch-size), memory use does not depend on the
+	 * size of the import.
+	 * 
+	 * The response is streamed as newline-delimited JSON with one result per line,
+	 * e.g. {@code {"line":1,"status":"created","id":17}} or
+	 * {@code {"line":2,"status":"rejected","reason":"conflict"}}, and a final summary
+	 * {@code {"lines":2,"created":1,"rejected":1}}. Reasons are "malformed" (no JSON
+	 * object), "invalid" (names missing, invalid id) and "conflict" (id is present
+	 * or repeated within the batch).
+	 * 
+	 * @param body NDJSON request body.
+	 * @param batchSize optional number of lines saved per batch, 1 .. 100000.
+	 * @return NDJSON results, streamed to the client.
+	 */
+
+	/*
+	 * Swagger API doc annotations:
+	 */
+	@Operation(
+		summary = "Import customers from newline-delimited JSON.",
+		description = "Import customers from newline-delimited JSON.",
+		tags={ "customers-controller" }
+	)
+	@ApiResponses( value = {
+		@ApiResponse( responseCode = "200", description = "OK", content = @Content(mediaType = "application/x-ndjson")),
+		@ApiResponse( responseCode = "400", description = "Bad Request, invalid batchSize"),
+	})
+
+	/*
+	 * Spring REST Controller annotation:
+	 */
+	@RequestMapping(
+		method = RequestMethod.POST,
+		value = "import",	// relative to interface @RequestMapping
+		consumes = { "application/x-ndjson" },
+		produces = { "application/x-ndjson" }
+	)
+	//
+	public ResponseEntity<StreamingResponseBody> importCustomers(
+		@ApiParam(hidden = true)
+		InputStream body,
+		//
+		@RequestParam( value = "batchSize", required = false )
+		@ApiParam(value = "Number of lines saved per batch", required = false)
+		Integer batchSize
+	);
+
+
 	/**
 	 * PUT /customers
 	 * 
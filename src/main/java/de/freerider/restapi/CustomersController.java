@@ -1,30 +1,84 @@
 package de.freerider.restapi;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.servlet.http.HttpServletRequest;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import de.freerider.datamodel.Customer;
 import de.freerider.repository.CustomerRepository;
+import de.freerider.repository.CustomerStats;
 
 @RestController
 class CustomersController implements CustomersAPI {
 
+    private static final Logger log = LoggerFactory.getLogger(CustomersController.class);
+
+    /**
+     * response header with the cursor of the next page.
+     */
+    static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private static final int MAX_IMPORT_BATCH_SIZE = 100_000;
+
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+
+    private static final int MAX_SEARCH_LIMIT = 100;
+
+    static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    static final MediaType CSV = MediaType.parseMediaType("text/csv;charset=UTF-8");
+
+    static final MediaType CBOR = MediaType.parseMediaType("application/cbor");
+
+    static final MediaType SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
+    /**
+     * representations of customers in order of preference when the client accepts several.
+     */
+    private static final List<MediaType> PRODUCIBLE = List.of(MediaType.APPLICATION_JSON, CBOR, SMILE);
+
+    /**
+     * generators of binary representations, JSON is written from cached bytes.
+     */
+    private static final Map<MediaType, JsonFactory> BINARY = Map.of(CBOR, new CBORFactory(), SMILE, new SmileFactory());
+
+    /**
+     * prefix of ETags, repository versions start over when the application restarts.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
     @Autowired // Spring auto‐wires reference to CustomerRepository instance
     private CustomerRepository customerRepository;
     private ApplicationContext context;
@@ -32,106 +86,218 @@ class CustomersController implements CustomersAPI {
     private final ObjectMapper objectMapper;
     //
     private final HttpServletRequest request;
-
-    private final Iterable<Customer> customers;
+    //
+    private final CustomerJsonCache jsonCache;
+    //
+    @Value("${app.api.import.batch-size:1000}")
+    private int importBatchSize;
 
     /**
      * Constructor.
      * 
      * @param objectMapper entry point to JSON tree for the Jackson library
      * @param request      HTTP request object
+     * @param jsonCache    cache of serialized customers
      */
     @Autowired
     public CustomersController(ObjectMapper objectMapper, HttpServletRequest request, ApplicationContext context,
-            CustomerRepository customerRepository) {
+            CustomerRepository customerRepository, CustomerJsonCache jsonCache) {
         this.objectMapper = objectMapper;
         this.request = request;
         this.context = context;
         this.customerRepository = customerRepository;
-        this.customers = customerRepository.findAll();
+        this.jsonCache = jsonCache;
     }
 
+    /**
+     * Customers are written one by one straight to the response stream from
+     * their cached JSON bytes, no JSON tree or intermediate copy of the customers
+     * is built. Memory per request is the list of matching customer references.
+     * CBOR and Smile are written by the same streaming serializer.
+     * 
+     * Filter conditions and sort order are compiled from the raw query string
+     * into a cached {@link CustomerQuery}, they are not bound as parameters.
+     * 
+     * With limit or cursor one page of customers is returned and the cursor of
+     * the next page is passed in the {@value #NEXT_CURSOR} header. Pages are in
+     * sort order or id order, the cursor holds the sort key and id of the last
+     * customer (keyset pagination), see {@link CustomerQuery#page}.
+     * 
+     * The ETag is the modification counter of the repository, requests with a
+     * matching If-None-Match header are answered with 304 without reading or
+     * serializing customers.
+     */
     @Override
-    public ResponseEntity<List<?>> getCustomers() {
-        ResponseEntity<List<?>> re = null;
-        System.err.println(request.getMethod() + " " + request.getRequestURI());
-        try {
-            ArrayNode arrayNode = customersAsJSON();
-            ObjectReader reader = objectMapper.readerFor(new TypeReference<List<ObjectNode>>() {
-            });
-            List<String> list = reader.readValue(arrayNode);
-            //
-            re = new ResponseEntity<List<?>>(list, HttpStatus.OK);
+    public ResponseEntity<StreamingResponseBody> getCustomers(Integer limit, String cursor, String fields) {
+        Optional<CustomerProjection> projection = CustomerProjection.of(fields);
+        Optional<CustomerQuery> query = CustomerQuery.of(request.getQueryString());
+        if (!projection.isPresent() || !query.isPresent()) {
+            return ResponseEntity.badRequest().build();
+        }
+        // version is read before the data so that the ETag never labels older data
+        MediaType format = negotiate();
+        String etag = etag(EPOCH + "-" + customerRepository.version(), format, projection.get());
+        if (limit == null && cursor == null) {
+            if (notModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+            }
+            Iterable<Customer> customers = query.get() == CustomerQuery.ALL ? customerRepository.findAll()
+                    : query.get().find(customerRepository);
+            return ResponseEntity.ok().contentType(format).eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                    .body(customersAs(format, projection.get(), customers));
+        }
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        Optional<Customer> after = cursor != null ? query.get().after(cursor) : Optional.empty();
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE || (cursor != null && !after.isPresent())) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (notModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+        }
+        List<Customer> page = query.get().page(customerRepository, after.orElse(null), pageSize + 1);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(format).eTag(etag)
+                .varyBy(HttpHeaders.ACCEPT);
+        if (page.size() > pageSize) {
+            page = page.subList(0, pageSize);
+            response.header(NEXT_CURSOR, query.get().cursor(page.get(pageSize - 1)));
+        }
+        return response.body(customersAs(format, projection.get(), page));
+    }
 
-        } catch (IOException e) {
-            re = new ResponseEntity<List<?>>(HttpStatus.INTERNAL_SERVER_ERROR);
+    /**
+     * Matches come from the name search index of the repository, the ETag is the
+     * modification counter of the repository as for GET /customers.
+     */
+    @Override
+    public ResponseEntity<StreamingResponseBody> searchCustomers(String q, Integer limit, String fields) {
+        Optional<CustomerProjection> projection = CustomerProjection.of(fields);
+        int size = limit != null ? limit : DEFAULT_SEARCH_LIMIT;
+        if (!projection.isPresent() || q.isBlank() || size < 1 || size > MAX_SEARCH_LIMIT) {
+            return ResponseEntity.badRequest().build();
+        }
+        MediaType format = negotiate();
+        String etag = etag(EPOCH + "-" + customerRepository.version(), format, projection.get());
+        if (notModified(etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
         }
-        return re;
+        return ResponseEntity.ok().contentType(format).eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                .body(customersAs(format, projection.get(), customerRepository.search(q, size)));
     }
 
     @Override
-    public ResponseEntity<?> getCustomer(long id) {
-        ResponseEntity<Object> response = null;
-        System.err.println(request.getMethod() + " " + request.getRequestURI());
-        try {
-            ObjectNode objectNode = customerAsJSON(id);
-            if (objectNode.size() == 0) {
-                response = new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
-            } else {
-                ObjectReader reader = objectMapper.readerFor(new TypeReference<ObjectNode>() {
-                });
-                Object customer = reader.readValue(objectNode);
-                response = new ResponseEntity<Object>(customer, HttpStatus.OK);
+    public ResponseEntity<CustomerStats> getStats() {
+        return ResponseEntity.ok(customerRepository.stats());
+    }
+
+    /**
+     * Write customers as array to the response stream. Complete JSON objects are
+     * copied from the cached JSON bytes of each customer, projections and CBOR
+     * and Smile are written with a generator.
+     */
+    private StreamingResponseBody customersAs(MediaType format, CustomerProjection projection,
+            Iterable<Customer> customers) {
+        if (format.equals(MediaType.APPLICATION_JSON) && projection == CustomerProjection.ALL) {
+            return out -> jsonCache.writeArray(customers, out);
+        }
+        JsonFactory factory = BINARY.getOrDefault(format, objectMapper.getFactory());
+        return out -> {
+            try (JsonGenerator generator = factory.createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                for (Customer customer : customers) {
+                    projection.write(customer, generator);
+                }
+                generator.writeEndArray();
             }
+        };
+    }
+
+    /**
+     * Return customer in format, complete JSON objects from the cache.
+     */
+    private byte[] customerAs(MediaType format, CustomerProjection projection, Customer customer) {
+        if (format.equals(MediaType.APPLICATION_JSON) && projection == CustomerProjection.ALL) {
+            return jsonCache.get(customer);
+        }
+        JsonFactory factory = BINARY.getOrDefault(format, objectMapper.getFactory());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (JsonGenerator generator = factory.createGenerator(bytes)) {
+            projection.write(customer, generator);
         } catch (IOException e) {
-            response = new ResponseEntity<Object>(HttpStatus.INTERNAL_SERVER_ERROR);
+            throw new UncheckedIOException(e);
         }
-        return response;
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Select representation from the Accept header of the request, JSON when the
+     * header is missing. Requests accepting none of the representations are
+     * answered with 406 before the handler is called.
+     */
+    private MediaType negotiate() {
+        List<MediaType> accepted = MediaType.parseMediaTypes(request.getHeader(HttpHeaders.ACCEPT));
+        MediaType.sortBySpecificityAndQuality(accepted);
+        for (MediaType accept : accepted) {
+            for (MediaType producible : PRODUCIBLE) {
+                if (accept.getQualityValue() > 0 && accept.isCompatibleWith(producible)) {
+                    return producible;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
+    }
+
+    /**
+     * Return weak ETag of the representation of a version in format and
+     * projection. ETags are weak since responses may be compressed, binary
+     * formats and projections have their own tags.
+     */
+    private static String etag(String version, MediaType format, CustomerProjection projection) {
+        return "W/\"" + version + (BINARY.containsKey(format) ? "-" + format.getSubtype() : "")
+                + (projection != CustomerProjection.ALL ? "-" + projection.tag() : "") + "\"";
     }
 
-    private ArrayNode customersAsJSON() {
-        System.out.println(customers);
-        ArrayNode arrayNode = objectMapper.createArrayNode();
-        for (Customer customer : customers) {
-            ObjectNode objectNode = objectMapper.createObjectNode();
-            objectNode.put("id", customer.getId());
-            objectNode.put("firstName", customer.getFirstName());
-            objectNode.put("lastName", customer.getLastName());
-            Iterable<String> contacts = customer.getContacts();
-            StringBuffer sb = new StringBuffer();
-            contacts.forEach(contact -> sb.append(sb.length() == 0 ? "" : "; ").append(contact));
-            objectNode.put("contacts", sb.toString());
-            arrayNode.add(objectNode);
-        }
-        return arrayNode;
-    }
-
-    private ObjectNode customerAsJSON(long id) {
-        ObjectNode objectNode = objectMapper.createObjectNode();
-        for (Customer customer : customers) {
-            if (customer.getId() == id) {
-                objectNode.put("id", customer.getId());
-                objectNode.put("firstName", customer.getFirstName());
-                objectNode.put("lastName", customer.getLastName());
-                Iterable<String> contacts = customer.getContacts();
-                StringBuffer sb = new StringBuffer();
-                contacts.forEach(contact -> sb.append(sb.length() == 0 ? "" : "; ").append(contact));
-                objectNode.put("contacts", sb.toString());
+    /**
+     * Returns the cached JSON bytes of the customer, or its CBOR or Smile
+     * representation. The ETag is the version of the customer, requests with a
+     * matching If-None-Match header are answered with 304.
+     */
+    @Override
+    public ResponseEntity<?> getCustomer(long id, String fields) {
+        Optional<CustomerProjection> projection = CustomerProjection.of(fields);
+        if (!projection.isPresent()) {
+            return ResponseEntity.badRequest().build();
+        }
+        long version = customerRepository.version(id);
+        Optional<Customer> customer = version >= 0 ? customerRepository.findById(id) : Optional.empty();
+        if (customer.isPresent()) {
+            MediaType format = negotiate();
+            String etag = etag(EPOCH + "-" + id + "-" + version, format, projection.get());
+            if (notModified(etag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
             }
+            return ResponseEntity.ok().contentType(format).eTag(etag).varyBy(HttpHeaders.ACCEPT)
+                    .body(customerAs(format, projection.get(), customer.get()));
         }
-        return objectNode;
+        return new ResponseEntity<Object>(HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Test If-None-Match header of the request against etag.
+     */
+    private boolean notModified(String etag) {
+        return new ServletWebRequest(request).checkNotModified(etag);
     }
 
     @Override
     public ResponseEntity<?> deleteCustomer(long id) {
         ResponseEntity<Object> response = null;
-        System.err.println(request.getMethod() + " " + request.getRequestURI());
         if (customerRepository.existsById(id)) {
             try {
                 customerRepository.deleteById(id);
                 response = new ResponseEntity<Object>(HttpStatus.ACCEPTED);
             } catch (Exception e) {
-                System.out.println(e.getMessage());
+                log.warn("{} {} failed: {}", request.getMethod(), request.getRequestURI(), e.toString());
                 response = new ResponseEntity<Object>(HttpStatus.INTERNAL_SERVER_ERROR);
             }
         } else {
@@ -140,45 +306,79 @@ class CustomersController implements CustomersAPI {
         return response;
     }
 
+    /**
+     * All objects are validated first, accepted customers are then saved as one
+     * batch. Objects that are invalid, have the id of a stored customer or of an
+     * earlier object of the request are rejected and returned with 409.
+     */
     @Override
     public ResponseEntity<List<?>> postCustomers(Map<String, Object>[] jsonMap) {
         if( jsonMap == null ){
             return new ResponseEntity<List<?>>(HttpStatus.BAD_REQUEST);
         }
-        ResponseEntity<List<?>> response = null;
-        System.err.println(request.getMethod() + " " + request.getRequestURI());
+        List<Customer> accepted = new ArrayList<Customer>();
+        List<Map<String, Object>> acceptedMaps = new ArrayList<Map<String, Object>>();
+        List<Map<String, Object>> rejected = new ArrayList<Map<String, Object>>();
+        Set<Long> ids = new HashSet<Long>();
         try {
             for (Map<String, Object> map : jsonMap) {
-                Optional<Customer> customer = accept(map);
-                System.out.println(customer);
-                if(!customer.isPresent()){
-                    System.err.println("Customer is null");
-                    return new ResponseEntity<List<?>>(HttpStatus.BAD_REQUEST);
+                Optional<Customer> customer = map != null ? acceptChecked(map) : Optional.empty();
+                long id = customer.map(Customer::getId).orElse(-1L);
+                if (customer.isPresent() && (id < 0 || ids.add(id))) {
+                    accepted.add(customer.get());
+                    acceptedMaps.add(map);
+                } else {
+                    rejected.add(map);
                 }
-                else{
-                    if(customerRepository.existsById(customer.get().getId())){
-                        System.err.println("Customer already exists");
-                        return new ResponseEntity<List<?>>(HttpStatus.CONFLICT);
-                    }
-                    else{
-                        customerRepository.save(customer.get());
-                    }
+            }
+            // ids of stored customers are rejected by the repository under its lock
+            Set<Long> conflicts = new HashSet<Long>(customerRepository.insertAll(accepted));
+            for (int i = 0; i < accepted.size(); i++) {
+                if (conflicts.contains(accepted.get(i).getId())) {
+                    rejected.add(acceptedMaps.get(i));
                 }
-                
-                
             }
-            response = new ResponseEntity<List<?>>(HttpStatus.CREATED);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
-            response = new ResponseEntity<List<?>>(HttpStatus.INTERNAL_SERVER_ERROR);
+            log.warn("{} {} failed: {}", request.getMethod(), request.getRequestURI(), e.toString());
+            return new ResponseEntity<List<?>>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
-        return response;
+        return new ResponseEntity<List<?>>(rejected, rejected.isEmpty() ? HttpStatus.CREATED : HttpStatus.CONFLICT);
+    }
+
+    /**
+     * Customers are written page by page while the client consumes the output.
+     */
+    @Override
+    public ResponseEntity<StreamingResponseBody> exportCustomers(String format) {
+        CustomerExporter.Format exportFormat;
+        try {
+            exportFormat = format != null ? CustomerExporter.Format.valueOf(format.toUpperCase()) : CustomerExporter.Format.NDJSON;
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        CustomerExporter exporter = new CustomerExporter(customerRepository, objectMapper.getFactory());
+        return ResponseEntity.ok()
+                .contentType(exportFormat == CustomerExporter.Format.CSV ? CSV : NDJSON)
+                .body(out -> exporter.run(exportFormat, out));
+    }
+
+    /**
+     * Lines are parsed and committed in batches while the request body is read,
+     * the result of each line is streamed back.
+     */
+    @Override
+    public ResponseEntity<StreamingResponseBody> importCustomers(InputStream body, Integer batchSize) {
+        int size = batchSize != null ? batchSize : importBatchSize;
+        if (size < 1 || size > MAX_IMPORT_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        CustomerImporter importer = new CustomerImporter(customerRepository, objectMapper, this::acceptChecked, size);
+        return ResponseEntity.ok().contentType(NDJSON).body(out -> importer.run(body, out));
     }
 
     @Override
     public ResponseEntity<List<?>> putCustomers(Map<String, Object>[] jsonMap) {
         ResponseEntity<List<?>> response = null;
-        System.err.println(request.getMethod() + " " + request.getRequestURI());
         try {
             for (Map<String, Object> map : jsonMap) {
                 Customer customer = customerRepository.findById(((Number) map.get("id")).longValue()).get();
@@ -188,7 +388,7 @@ class CustomersController implements CustomersAPI {
             }
             response = new ResponseEntity<List<?>>(HttpStatus.OK);
         } catch (Exception e) {
-            System.out.println(e.getMessage());
+            log.warn("{} {} failed: {}", request.getMethod(), request.getRequestURI(), e.toString());
             response = new ResponseEntity<List<?>>(HttpStatus.INTERNAL_SERVER_ERROR);
         }
         return response;
@@ -208,20 +408,24 @@ class CustomersController implements CustomersAPI {
             if(!hasNames(kvpairs)){
                 return Optional.empty();
             }
-            Iterable<Customer> customers = customerRepository.findAll();
-            Long maxId = 0L;
-            for( Customer customer : customers ){
-                if( customer.getId() > maxId ){
-                    maxId = customer.getId();
-                }
-            }
-            Long id = maxId + 1;
-            Customer customer = createCustomer(id, (String) kvpairs.get("first"), (String) kvpairs.get("name"), (String) kvpairs.get("contacts"));
+            // id is assigned from the sequence when the customer is saved
+            Customer customer = createCustomer(-1L, (String) kvpairs.get("first"), (String) kvpairs.get("name"), (String) kvpairs.get("contacts"));
             return Optional.of(customer);
         }
         
     }
 
+    /**
+     * accept() for untrusted input, attributes of wrong JSON type are invalid.
+     */
+    private Optional<Customer> acceptChecked(Map<String, Object> kvpairs) {
+        try {
+            return accept(kvpairs);
+        } catch (ClassCastException | NullPointerException e) {
+            return Optional.empty();
+        }
+    }
+
     private Customer createCustomer(Long id, String first, String last, String contacts) {
         Customer customer = new Customer();
         customer.setId(id);
@@ -0,0 +1,103 @@
+package de.freerider.restapi;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+
+/**
+ * Configuration of request execution.
+ *
+ * Requests run on the platform threads of Tomcat's worker pool (at most
+ * server.tomcat.threads.max concurrent requests). With property
+ * {@code app.server.virtual-threads=true} every request runs on its own virtual
+ * thread instead, a request blocked on I/O (e.g. waiting for the write-ahead log)
+ * then releases its carrier thread and concurrency is limited by connections,
+ * not threads. Streamed responses (StreamingResponseBody of GET /customers,
+ * import, export) run on virtual threads as well. Virtual threads require
+ * Java 21 or later, startup fails if the option is set on an older JDK.
+ *
+ * Spring Boot's MVC auto-configuration is disabled by @EnableWebMvc of
+ * SwaggerConfig, the async request timeout {@code spring.mvc.async.request-timeout}
+ * is therefore applied here.
+ */
+@Configuration
+class ServerConfig implements WebMvcConfigurer {
+
+	private static final Logger log = LoggerFactory.getLogger( ServerConfig.class );
+
+	@Value( "${app.server.virtual-threads:false}" )
+	private boolean virtualThreads;
+
+	@Value( "${spring.mvc.async.request-timeout:}" )
+	private Duration asyncRequestTimeout;
+
+	/*
+	 * executor starting one virtual thread per task, null for platform threads
+	 */
+	private ExecutorService executor;
+
+
+	@PostConstruct
+	void start() {
+		if( virtualThreads ) {
+			executor = newVirtualThreadPerTaskExecutor();
+			log.info( "requests run on virtual threads" );
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		if( executor != null ) {
+			executor.shutdown();
+		}
+	}
+
+	@Bean
+	WebServerFactoryCustomizer<TomcatServletWebServerFactory> requestExecutor() {
+		return factory -> {
+			if( executor != null ) {
+				factory.addProtocolHandlerCustomizers( handler -> handler.setExecutor( executor ) );
+			}
+		};
+	}
+
+	@Override
+	public void configureAsyncSupport( AsyncSupportConfigurer configurer ) {
+		if( asyncRequestTimeout != null ) {
+			configurer.setDefaultTimeout( asyncRequestTimeout.toMillis() );
+		}
+		if( executor != null ) {
+			configurer.setTaskExecutor( new TaskExecutorAdapter( executor ) );
+		}
+	}
+
+
+	/**
+	 * Return Executors.newVirtualThreadPerTaskExecutor(), looked up at runtime
+	 * since the application is compiled for Java 11.
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+		} catch( ReflectiveOperationException | UnsupportedOperationException e ) {
+			throw new IllegalStateException( "app.server.virtual-threads requires Java 21 or later, running Java "
+					+ Runtime.version(), e );
+		}
+	}
+
+}
@@ -3,7 +3,8 @@ package de.freerider.app;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+// no write-ahead log: the test must not replay or append to a data directory of earlier runs
+@SpringBootTest( properties = "app.repository.wal.enabled=false" )
 class AppApplicationTests {
 
 	@Test
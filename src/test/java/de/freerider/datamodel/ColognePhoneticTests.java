@@ -0,0 +1,38 @@
+package de.freerider.datamodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+class ColognePhoneticTests {
+
+    @Test
+    void namesThatSoundAlikeHaveTheSameCode() {
+        assertEquals("65752682", ColognePhonetic.encode("Müller-Lüdenscheidt"));
+        assertEquals("3412", ColognePhonetic.encode("Wikipedia"));
+        assertEquals("47823", ColognePhonetic.encode("Christoph"));
+        assertEquals("0485", ColognePhonetic.encode("Axel"));
+        for (String name : new String[] { "Meyer", "Maier", "Mayer", "Meier" }) {
+            assertEquals("67", ColognePhonetic.encode(name), name);
+        }
+        assertEquals(ColognePhonetic.encode("Schulz-Müller"), ColognePhonetic.encode("Schulz-Mueller"));
+        assertEquals("", ColognePhonetic.encode(""));
+        assertEquals("", ColognePhonetic.encode(null));
+    }
+
+    @Test
+    void customerComputesCodesWhenNameIsSet() {
+        StringPool pool = new StringPool(16);
+        Customer eric = new Customer().setName("Eric Meyer");
+        assertEquals("67", eric.getLastNamePhonetic());
+        assertEquals("078", eric.getFirstNamePhonetic());
+        eric.setName(null, "Schulz-Müller");
+        assertEquals("858657", eric.getLastNamePhonetic());
+        assertEquals("078", eric.getFirstNamePhonetic());
+        // codes repeat like names and are shared in compact storage mode
+        Customer anne = new Customer().setName("Anne", "Maier").compact(pool);
+        assertSame(anne.getLastNamePhonetic(), new Customer().setName("Tim", "Mayer").compact(pool).getLastNamePhonetic());
+    }
+
+}
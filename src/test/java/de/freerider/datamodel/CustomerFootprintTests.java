@@ -0,0 +1,110 @@
+package de.freerider.datamodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+class CustomerFootprintTests {
+
+    private static final int CUSTOMERS = 10_000;
+
+    private static final String[] FIRST_NAMES = { "Eric", "Anne", "Tim", "Nadine", "Khaled" };
+
+
+    @Test
+    void compactModeSharesRepeatedStrings() {
+        double plain = bytesPerCustomer(customers());
+        StringPool pool = new StringPool(4096);
+        List<Customer> customers = customers();
+        customers.forEach(customer -> customer.compact(pool));
+        double compact = bytesPerCustomer(customers);
+        assertTrue(compact < plain * 0.75, "compact " + compact + " vs. plain " + plain);
+    }
+
+    @Test
+    void poolReturnsCanonicalInstance() {
+        StringPool pool = new StringPool(16);
+        Customer eric = new Customer().setName(new String("Eric"), new String("Meyer")).compact(pool);
+        Customer anne = new Customer().setName(new String("Anne"), new String("Meyer"))
+                .addContact(new String("(030) 7000-640000")).compact(pool);
+        // values set later are pooled through the listener
+        Customer tim = new Customer().setListener(new Customer.Listener() {
+            @Override
+            public StringPool stringPool() {
+                return pool;
+            }
+        }).addContact(new String("(030) 7000-640000"));
+        assertSame(eric.getLastName(), anne.getLastName());
+        assertSame(anne.getContacts().iterator().next(), tim.getContacts().iterator().next());
+        assertNotSame(eric.getFirstName(), new Customer().setName(new String("Eric"), "").getFirstName());
+    }
+
+    @Test
+    void contactsArrayKeepsListSemantics() {
+        Customer customer = new Customer().addContact("a").addContact(" b ").addContact("a").addContact("c");
+        Iterable<String> before = customer.getContacts();
+        assertEquals(List.of("a", "b", "c"), contacts(customer));
+        customer.deleteContact(1);
+        customer.deleteContact(5);
+        assertEquals(List.of("a", "c"), contacts(customer));
+        assertEquals(2, customer.contactsCount());
+        assertEquals(3, count(before));
+        Iterator<String> it = customer.getContacts().iterator();
+        it.next();
+        assertThrows(UnsupportedOperationException.class, it::remove);
+        customer.deleteAllContacts();
+        assertEquals(0, customer.contactsCount());
+    }
+
+
+    /**
+     * Customers with repeated first names, surnames and company phone numbers and
+     * a unique e-mail address each. Strings are separate instances as if parsed
+     * from requests or the log.
+     */
+    private static List<Customer> customers() {
+        List<Customer> customers = new ArrayList<>(CUSTOMERS);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customers.add(new Customer().setId(i)
+                    .setName(new String(FIRST_NAMES[i % FIRST_NAMES.length]), "Meyer" + (i % 50))
+                    .addContact("eric" + i + "@yahoo.com")
+                    .addContact("(030) 7000-" + (i % 100)));
+        }
+        return customers;
+    }
+
+    /**
+     * Retained size of the customer object graphs measured with JOL, shared
+     * instances such as pooled Strings and Status constants are counted once.
+     */
+    private static double bytesPerCustomer(List<Customer> customers) {
+        Object[] roots = customers.toArray();
+        long total = GraphLayout.parseInstance(roots).totalSize();
+        long array = GraphLayout.parseInstance((Object) new Object[roots.length]).totalSize();
+        return (total - array) / (double) roots.length;
+    }
+
+    private static List<String> contacts(Customer customer) {
+        List<String> contacts = new ArrayList<>();
+        customer.getContacts().forEach(contacts::add);
+        return contacts;
+    }
+
+    private static int count(Iterable<String> contacts) {
+        int n = 0;
+        for (Iterator<String> it = contacts.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+}
@@ -0,0 +1,111 @@
+package de.freerider.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+
+class ColumnarCustomerRepositoryTests {
+
+    private final ColumnarCustomerRepository repository = new ColumnarCustomerRepository();
+
+
+    @Test
+    void customersAreStoredByValue() {
+        Customer eric = repository.save(new Customer().setId(1).setName("Eric", "Meyer")
+                .addContact("eric98@yahoo.com").addContact("(030) 7000-640000").setStatus(Customer.Status.Active));
+        //
+        Customer stored = repository.findById(1L).get();
+        assertNotSame(eric, stored);
+        assertEquals("Eric", stored.getFirstName());
+        assertEquals("Meyer", stored.getLastName());
+        assertEquals(Customer.Status.Active, stored.getStatus());
+        assertEquals(List.of("eric98@yahoo.com", "(030) 7000-640000"), contacts(stored));
+        //
+        eric.setName("Eric", "Maier");
+        assertEquals("Meyer", repository.findById(1L).get().getLastName());
+        repository.save(eric);
+        assertEquals("Maier", repository.findById(1L).get().getLastName());
+        assertEquals(1, repository.count());
+    }
+
+    @Test
+    void findAllKeepsInsertionOrderAcrossCompaction() {
+        LongStream.rangeClosed(1, 1000).forEach(id -> repository.save(customer(id)));
+        repository.deleteAllById(LongStream.rangeClosed(1, 1000).filter(id -> id % 3 != 0).boxed()
+                .collect(Collectors.toList()));
+        // replacements produce arena garbage, new customers fill the columns
+        for (int round = 0; round < 100; round++) {
+            repository.saveAll(LongStream.rangeClosed(1, 333).mapToObj(i -> customer(i * 3))
+                    .collect(Collectors.toList()));
+        }
+        LongStream.rangeClosed(1001, 3000).forEach(id -> repository.save(customer(id)));
+        //
+        List<Long> expected = LongStream.concat(LongStream.rangeClosed(1, 333).map(i -> i * 3),
+                LongStream.rangeClosed(1001, 3000)).boxed().collect(Collectors.toList());
+        assertEquals(expected, ids(repository.findAll()));
+        assertEquals(2333, repository.count());
+        assertTrue(repository.existsById(999L));
+        assertFalse(repository.existsById(998L));
+        assertEquals("Meyer", repository.findById(2500L).get().getLastName());
+    }
+
+    @Test
+    void findersScanColumns() {
+        repository.save(customer(1).addContact("+49 30 7000-1"));
+        repository.save(new Customer().setId(2).setName("Anne", "Bayer").setStatus(Customer.Status.Suspended));
+        repository.save(customer(3).setStatus(null));
+        //
+        assertEquals(List.of(1L, 3L), ids(repository.findByLastName("meyer")));
+        assertEquals(List.of(2L), ids(repository.findByFirstName("ANNE")));
+        assertEquals(List.of(2L), ids(repository.findByStatus(Customer.Status.Suspended)));
+        assertEquals(List.of(1L), ids(repository.findByStatus(Customer.Status.New)));
+        assertEquals(List.of(1L), ids(repository.findByContact("+493070001")));
+        assertEquals(List.of(3L, 1L), ids(repository.findAllById(List.of(3L, 4L, 1L))));
+        assertEquals(null, repository.findById(3L).get().getStatus());
+    }
+
+    @Test
+    void idsAreAllocatedAndValidated() {
+        Customer anne = repository.save(new Customer().setName("Anne", "Bayer"));
+        repository.save(customer(10));
+        assertEquals(1, anne.getId());
+        assertEquals(11, repository.save(new Customer()).getId());
+        assertThrows(IllegalArgumentException.class, () -> repository.saveAll(List.of(customer(20), customer(20))));
+        assertFalse(repository.existsById(20L));
+        //
+        repository.deleteAll();
+        assertEquals(0, repository.count());
+        assertEquals(List.of(), ids(repository.findAll()));
+        repository.save(customer(5));
+        assertEquals(List.of(5L), ids(repository.findAll()));
+    }
+
+
+    private static Customer customer(long id) {
+        return new Customer().setId(id).setName("Eric", "Meyer").addContact("eric" + id + "@yahoo.com");
+    }
+
+    private static List<Long> ids(Iterable<Customer> customers) {
+        List<Long> ids = new ArrayList<>();
+        customers.forEach(customer -> ids.add(customer.getId()));
+        return ids;
+    }
+
+    private static List<String> contacts(Customer customer) {
+        List<String> contacts = new ArrayList<>();
+        customer.getContacts().forEach(contacts::add);
+        return contacts;
+    }
+
+}
@@ -0,0 +1,442 @@
+package de.freerider.repository;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import de.freerider.datamodel.Customer;
+
+/**
+ * Micro benchmarks for CustomerRepository, run with:
+ * <pre>{@code
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes de.freerider.repository.CustomerRepositoryBenchmark [scenario]
+ * }</pre>
+ * Scenarios: bulk, restart, columnar, search, phonetic, scan [count], all (default).
+ * The scan scenario defaults to 10,000,000 customers, which needs about 6g of heap.
+ * Not a unit test, surefire does not pick up this class.
+ */
+public class CustomerRepositoryBenchmark {
+
+    private static final int BATCH = 10_000;
+
+    private static final int ROUNDS = 50;
+
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        String scenario = args.length > 0 ? args[0] : "all";
+        if (scenario.equals("all") || scenario.equals("bulk")) {
+            bulkOperations();
+        }
+        if (scenario.equals("all") || scenario.equals("restart")) {
+            restart(new int[] { 100_000, 1_000_000 });
+        }
+        if (scenario.equals("all") || scenario.equals("columnar")) {
+            columnar(new int[] { 100_000, 1_000_000, 3_000_000 });
+        }
+        if (scenario.equals("all") || scenario.equals("search")) {
+            search(1_000_000);
+        }
+        if (scenario.equals("all") || scenario.equals("phonetic")) {
+            phonetic(1_000_000);
+        }
+        if (scenario.equals("all") || scenario.equals("scan")) {
+            scan(args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+        }
+    }
+
+
+    /**
+     * Bulk operations (one validation pass, one lock acquisition) against the
+     * same work done with single-item calls, {@value #BATCH} items per batch.
+     * Measured without and with reader threads contending for the lock.
+     */
+    static void bulkOperations() {
+        List<Long> ids = LongStream.rangeClosed(1, BATCH).boxed().collect(Collectors.toList());
+        for (int readers : new int[] { 0, 4 }) {
+            System.out.printf("-- %d concurrent reader threads%n", readers);
+            report("saveAll", readers, false, (repository, customers) -> repository.saveAll(customers),
+                    (repository, customers) -> customers.forEach(repository::save));
+            report("findAllById", readers, true, (repository, customers) -> repository.findAllById(ids),
+                    (repository, customers) -> ids.forEach(repository::findById));
+            report("deleteAllById", readers, true, (repository, customers) -> repository.deleteAllById(ids),
+                    (repository, customers) -> ids.forEach(repository::deleteById));
+        }
+    }
+
+
+    /**
+     * Startup time against customer count: replaying the full write-ahead log
+     * compared to loading a memory-mapped snapshot.
+     */
+    static void restart(int[] counts) throws IOException {
+        for (int count : counts) {
+            Path dir = Files.createTempDirectory("customers");
+            try {
+                CustomerRepository repository = new CustomerRepository();
+                CustomerWriteAheadLog wal = new CustomerWriteAheadLog(repository, dir.toString(), true, false, 0, false);
+                wal.open();
+                List<Customer> batch = new ArrayList<>();
+                for (long id = 1; id <= count; id++) {
+                    batch.add(new Customer().setId(id).setName("Eric", "Meyer" + (id % 1000))
+                            .addContact("eric" + id + "@yahoo.com").addContact("(030) 7000-" + id));
+                    if (batch.size() == BATCH) {
+                        repository.saveAll(batch);
+                        batch = new ArrayList<>();
+                    }
+                }
+                repository.saveAll(batch);
+                wal.close();
+                double replayMs = startup(dir, count);
+                //
+                CustomerRepository loaded = new CustomerRepository();
+                wal = new CustomerWriteAheadLog(loaded, dir.toString(), true, false, 0, false);
+                wal.open();
+                wal.snapshot();
+                wal.close();
+                double snapshotMs = startup(dir, count);
+                System.out.printf("restart with %,10d customers: log replay %8.1f ms, snapshot %8.1f ms%n",
+                        count, replayMs, snapshotMs);
+            } finally {
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(dir);
+            }
+        }
+    }
+
+    /**
+     * Heap footprint, GC activity and lookup times of the object-per-customer
+     * CustomerRepository against the ColumnarCustomerRepository.
+     */
+    static void columnar(int[] counts) {
+        for (int count : counts) {
+            measure("heap objects", count, new CustomerRepository());
+            measure("columnar", count, new ColumnarCustomerRepository());
+        }
+    }
+
+    /**
+     * Top-10 name search on the search index against a scan of all customers
+     * with the same matching rule, as a client filtering GET /customers does.
+     * Last names are drawn from 50,000 distinct names.
+     */
+    static void search(int count) {
+        long start = System.nanoTime();
+        CustomerRepository repository = named(count);
+        System.out.printf("search: %,d customers loaded and indexed in %.1f ms%n", count, (System.nanoTime() - start) / 1e6);
+        for (String query : new String[] { "Schul", "Mey", "m", "eric sch", "schulz1a", "chul", "xyz" }) {
+            int found = 0;
+            for (int i = 0; i < 200; i++) {
+                found = repository.search(query, 10).size();    // warm-up
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < ROUNDS; i++) {
+                repository.search(query, 10);
+            }
+            double indexMs = (System.nanoTime() - start) / 1e6 / ROUNDS;
+            start = System.nanoTime();
+            long matches = 0;
+            String[] words = CustomerRepository.normalizeName(query).split("\\s+");
+            for (Customer customer : repository.findAll()) {
+                String first = CustomerRepository.normalizeName(customer.getFirstName());
+                String last = CustomerRepository.normalizeName(customer.getLastName());
+                boolean all = true;
+                for (String word : words) {
+                    all &= NameSearchIndex.score(first, word) > 0 || NameSearchIndex.score(last, word) > 0;
+                }
+                matches += all ? 1 : 0;
+            }
+            double scanMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("q=%-10s %8d matches, top %2d: index %8.3f ms, full scan %8.1f ms%n",
+                    "\"" + query + "\"", matches, found, indexMs, scanMs);
+        }
+    }
+
+    /**
+     * Phonetic lookup of last names (one hash probe of the precomputed Kölner
+     * Phonetik codes) against a scan of all customers comparing last names by
+     * edit distance, the usual way to find misspelled names without an index.
+     */
+    static void phonetic(int count) {
+        CustomerRepository repository = named(count);
+        for (String name : new String[] { "Maier", "Schultz", "Schneyder", "Vogel", "Fischer5a" }) {
+            int found = 0;
+            for (int i = 0; i < 2000; i++) {
+                found = ((List<Customer>) repository.findByLastNamePhonetic(name)).size();    // warm-up
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < 10 * ROUNDS; i++) {
+                repository.findByLastNamePhonetic(name);
+            }
+            double indexMs = (System.nanoTime() - start) / 1e6 / ROUNDS / 10;
+            start = System.nanoTime();
+            String lower = CustomerRepository.normalizeName(name);
+            long matches = 0;
+            for (Customer customer : repository.findAll()) {
+                matches += editDistance(lower, CustomerRepository.normalizeName(customer.getLastName())) <= 2 ? 1 : 0;
+            }
+            double scanMs = (System.nanoTime() - start) / 1e6;
+            System.out.printf("phonetic %-12s %8d matches: index %8.3f ms | edit distance <= 2: %8d matches, scan %8.1f ms%n",
+                    "\"" + name + "\"", found, indexMs, matches, scanMs);
+        }
+    }
+
+    /**
+     * Scans of all customers with predicates no index answers: a sequential
+     * loop over findAll() against count(predicate) on fork/join pools of 1, 2,
+     * 4, .. workers up to the number of processors. Speedup is relative to the
+     * parallel scan with one worker.
+     */
+    static void scan(int count) throws InterruptedException, ExecutionException {
+        CustomerRepository repository = named(count);
+        String[] domains = { "gmx.de", "web.de", "yahoo.com", "t-online.de", "example.org" };
+        for (Customer customer : repository.findAll()) {
+            customer.addContact(customer.getFirstName().toLowerCase() + customer.getId() + "@"
+                    + domains[(int) (customer.getId() % domains.length)]);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("scan: %,d customers, %d processors%n", count, processors);
+        List<Predicate<Customer>> predicates = List.of(
+                customer -> {
+                    for (String contact : customer.getContacts()) {
+                        if (contact.endsWith("@gmx.de")) {
+                            return true;
+                        }
+                    }
+                    return false;
+                },
+                customer -> customer.getLastName().length() == 8);
+        String[] names = { "contacts @gmx.de", "lastName length 8" };
+        for (int p = 0; p < predicates.size(); p++) {
+            Predicate<Customer> predicate = predicates.get(p);
+            long matches = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < 3; round++) {
+                matches = 0;
+                for (Customer customer : repository.findAll()) {
+                    matches += predicate.test(customer) ? 1 : 0;
+                }
+            }
+            double sequentialMs = (System.nanoTime() - start) / 1e6 / 3;
+            System.out.printf("%-18s %,10d matches: findAll() loop %8.1f ms%n", names[p], matches, sequentialMs);
+            double oneWorkerMs = 0;
+            for (int workers = 1; workers <= processors; workers = workers < processors && 2 * workers > processors
+                    ? processors : 2 * workers) {
+                ForkJoinPool pool = new ForkJoinPool(workers);
+                try {
+                    for (int round = 0; round < 3; round++) {
+                        pool.submit(() -> repository.count(predicate)).get();     // warm-up
+                    }
+                    start = System.nanoTime();
+                    for (int round = 0; round < 5; round++) {
+                        matches = pool.submit(() -> repository.count(predicate)).get();
+                    }
+                    double ms = (System.nanoTime() - start) / 1e6 / 5;
+                    oneWorkerMs = workers == 1 ? ms : oneWorkerMs;
+                    System.out.printf("%-18s %,10d matches: %2d workers %8.1f ms, speedup %5.2f%n", "", matches, workers,
+                            ms, oneWorkerMs / ms);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Customers with 10 first names and 50,000 distinct last names built from
+     * common German surnames.
+     */
+    private static CustomerRepository named(int count) {
+        String[] firstNames = { "Eric", "Anne", "Tim", "Lena", "Jonas", "Marie", "Paul", "Sophie", "Felix", "Emma" };
+        String[] lastNames = { "Meyer", "Schulz", "Schulte", "Becker", "Hoffmann", "Schneider", "Fischer", "Weber",
+                "Wagner", "Bauer", "Koch", "Richter", "Klein", "Wolf", "Neumann", "Schwarz", "Braun", "Kruger" };
+        CustomerRepository repository = new CustomerRepository();
+        List<Customer> batch = new ArrayList<>(BATCH);
+        for (long id = 1; id <= count; id++) {
+            int name = (int) (id * 7919 % 50_000);
+            batch.add(new Customer().setId(id).setName(firstNames[(int) (id % firstNames.length)],
+                    lastNames[name % lastNames.length] + (name < lastNames.length ? "" : Long.toString(name, 36))));
+            if (batch.size() == BATCH) {
+                repository.saveAll(batch);
+                batch = new ArrayList<>(BATCH);
+            }
+        }
+        repository.saveAll(batch);
+        return repository;
+    }
+
+    /**
+     * Levenshtein distance of a and b.
+     */
+    private static int editDistance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static void measure(String name, int count, CustomerCrudRepository repository) {
+        long heapBefore = usedHeap();
+        long directBefore = usedDirect();
+        long start = System.nanoTime();
+        List<Customer> batch = new ArrayList<>(BATCH);
+        for (long id = 1; id <= count; id++) {
+            batch.add(new Customer().setId(id).setName("Eric", "Meyer" + (id % 1000))
+                    .addContact("eric" + id + "@yahoo.com").addContact("(030) 7000-" + id)
+                    .setStatus(id % 10 == 0 ? Customer.Status.Active : Customer.Status.New));
+            if (batch.size() == BATCH) {
+                repository.saveAll(batch);
+                batch = new ArrayList<>(BATCH);
+            }
+        }
+        repository.saveAll(batch);
+        double loadMs = (System.nanoTime() - start) / 1e6;
+        long heap = usedHeap() - heapBefore;
+        long direct = Math.max(0, usedDirect() - directBefore);  // buffers of earlier runs may be freed meanwhile
+        //
+        long gcBefore = gcMillis();
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            found += repository.findById(1 + (i * 7919L) % count).isPresent() ? 1 : 0;
+        }
+        double lookupMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        for (Customer customer : repository.findByStatus(Customer.Status.Active)) {
+            found += customer.contactsCount();
+        }
+        double statusMs = (System.nanoTime() - start) / 1e6;
+        long gcMs = gcMillis() - gcBefore;
+        System.out.printf("%-12s %,10d customers: load %8.1f ms, heap %7.1f MB, off-heap %7.1f MB,"
+                + " 1M findById %7.1f ms, findByStatus %7.1f ms, GC during queries %5d ms (%d)%n",
+                name, count, loadMs, heap / 1e6, direct / 1e6, lookupMs, statusMs, gcMs, found);
+        repository.deleteAll();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static double startup(Path dir, int count) throws IOException {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            CustomerRepository repository = new CustomerRepository();
+            CustomerWriteAheadLog wal = new CustomerWriteAheadLog(repository, dir.toString(), true, false, 0, false);
+            long start = System.nanoTime();
+            wal.open();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            if (repository.count() != count) {
+                throw new IllegalStateException("restored " + repository.count() + " of " + count);
+            }
+            wal.close();
+        }
+        return best;
+    }
+
+    private static void report(String name, int readers, boolean filled,
+            BiConsumer<CustomerRepository, List<Customer>> bulk,
+            BiConsumer<CustomerRepository, List<Customer>> single) {
+        time(bulk, filled, readers, 20);     // warm-up
+        time(single, filled, readers, 20);
+        double bulkMs = time(bulk, filled, readers, ROUNDS);
+        double singleMs = time(single, filled, readers, ROUNDS);
+        System.out.printf("%-14s %,d items: bulk %8.3f ms, single-item loop %8.3f ms, speedup %5.2fx%n",
+                name, BATCH, bulkMs, singleMs, singleMs / bulkMs);
+    }
+
+    /**
+     * Run operation on a fresh repository, pre-filled with {@value #BATCH} customers
+     * when filled is set, while reader threads look up customers by id.
+     *
+     * @return average time per round in ms.
+     */
+    private static double time(BiConsumer<CustomerRepository, List<Customer>> op, boolean filled,
+            int readers, int rounds) {
+        long total = 0;
+        for (int i = 0; i < rounds; i++) {
+            CustomerRepository repository = new CustomerRepository();
+            List<Customer> customers = customers();
+            if (filled) {
+                repository.saveAll(customers);
+            }
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Thread> threads = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                Thread reader = new Thread(() -> {
+                    long id = 0;
+                    while (running.get()) {
+                        repository.findById(id++ % BATCH);
+                    }
+                });
+                reader.start();
+                threads.add(reader);
+            }
+            long start = System.nanoTime();
+            op.accept(repository, customers);
+            total += System.nanoTime() - start;
+            running.set(false);
+            threads.forEach(thread -> {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        return total / 1e6 / rounds;
+    }
+
+    private static List<Customer> customers() {
+        List<Customer> customers = new ArrayList<>(BATCH);
+        for (long id = 1; id <= BATCH; id++) {
+            customers.add(new Customer().setId(id).setName("Eric", "Meyer" + (id % 100))
+                    .addContact("eric" + id + "@yahoo.com"));
+        }
+        return customers;
+    }
+
+}
@@ -0,0 +1,520 @@
+package de.freerider.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+
+class CustomerRepositoryTests {
+
+    private static final int THREADS = 8;
+
+    private static final int PER_THREAD = 20_000;
+
+    private final CustomerRepository repository = new CustomerRepository();
+
+
+    @Test
+    void findAllKeepsInsertionOrder() {
+        repository.save(customer(3));
+        repository.save(customer(1));
+        repository.save(customer(2));
+        repository.deleteById(1L);
+        repository.save(customer(1));
+        //
+        assertEquals(List.of(3L, 2L, 1L), ids(repository.findAll()));
+        assertTrue(repository.existsById(2L));
+        assertFalse(repository.existsById(4L));
+    }
+
+    @Test
+    void deleteAllByIdRemovesAllMatches() {
+        LongStream.rangeClosed(1, 100).forEach(id -> repository.save(customer(id)));
+        //
+        repository.deleteAllById(LongStream.rangeClosed(1, 100).filter(id -> id % 2 == 0).boxed()
+                .collect(Collectors.toList()));
+        //
+        assertEquals(50, repository.count());
+        assertFalse(repository.existsById(50L));
+        assertTrue(repository.existsById(51L));
+    }
+
+    @Test
+    void savingAnotherInstanceWithTheSameIdReplacesTheStoredCustomer() {
+        Customer stored = repository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        Customer copy = repository.save(new Customer().setId(1).setName("Eric", "Schulz"));
+        //
+        assertSame(copy, repository.findById(1L).get());
+        assertEquals(1, repository.count());
+        assertEquals(List.of(), ids(repository.findByLastName("Meyer")));
+        assertEquals(List.of(1L), ids(repository.findByLastName("Schulz")));
+        // the replaced instance is detached, its changes do not reach the indexes
+        stored.setName("Anne", "Bayer");
+        assertEquals(List.of(), ids(repository.findByLastName("Bayer")));
+        assertEquals(List.of(1L), ids(repository.findByLastName("Schulz")));
+        // deleting the replaced instance leaves the stored one
+        repository.delete(stored);
+        assertSame(copy, repository.findById(1L).get());
+        // batches replace the same way
+        Customer batched = new Customer().setId(1).setName("Tim", "Borschulte");
+        repository.saveAll(List.of(batched, customer(2)));
+        assertSame(batched, repository.findById(1L).get());
+        assertEquals(List.of(), ids(repository.findByLastName("Schulz")));
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void secondaryIndexesFollowChanges() {
+        Customer eric = repository.save(customer(1));
+        Customer anne = repository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        //
+        assertEquals(List.of(1L), ids(repository.findByLastName("meyer")));
+        assertEquals(List.of(1L, 2L), ids(repository.findByStatus(Customer.Status.New)));
+        //
+        eric.setName("Eric", "Bayer");
+        anne.setStatus(Customer.Status.Suspended);
+        assertEquals(List.of(), ids(repository.findByLastName("Meyer")));
+        assertEquals(List.of(1L, 2L), ids(repository.findByLastName("Bayer")));	// in id order
+        assertEquals(List.of(2L), ids(repository.findByStatus(Customer.Status.Suspended)));
+        //
+        repository.delete(anne);
+        anne.setName("Anne", "Meyer");
+        assertEquals(List.of(1L), ids(repository.findByLastName("Bayer")));
+        assertEquals(List.of(), ids(repository.findByLastName("Meyer")));
+        assertEquals(List.of(1L), ids(repository.findByFirstName("ERIC")));
+    }
+
+    @Test
+    void contactIndexFollowsChanges() {
+        Customer eric = repository.save(customer(1).addContact("Eric98@yahoo.com").addContact("(030) 7000-640000"));
+        //
+        assertEquals(List.of(1L), ids(repository.findByContact("eric98@YAHOO.com")));
+        assertEquals(List.of(1L), ids(repository.findByContact("030 7000640000")));
+        //
+        eric.deleteContact(0);
+        eric.addContact("eric@gmx.de");
+        assertEquals(List.of(), ids(repository.findByContact("eric98@yahoo.com")));
+        assertEquals(List.of(1L), ids(repository.findByContact("eric@gmx.de")));
+        //
+        eric.deleteAllContacts();
+        assertEquals(List.of(), ids(repository.findByContact("(030) 7000-640000")));
+    }
+
+    @Test
+    void listenersRejectChangesBeforeTheyAreAppliedAndCommitOnlySuccess() {
+        repository.save(customer(1));
+        List<String> events = new ArrayList<>();
+        repository.addListener(new CustomerRepository.Listener() {
+            @Override
+            public void prepare() {
+                if (events.contains("fail")) {
+                    throw new IllegalStateException("log failed");
+                }
+            }
+
+            @Override
+            public void saved(Customer customer) {
+                if (customer.getId() == 3) {
+                    throw new IllegalArgumentException("cannot encode");
+                }
+                events.add("saved " + customer.getId());
+            }
+
+            @Override
+            public void committed() {
+                events.add("committed");
+                if (events.contains("saved 2")) {
+                    throw new IllegalStateException("fsync failed");
+                }
+            }
+        });
+        // a failing operation is not committed and its exception is not hidden
+        assertThrows(IllegalArgumentException.class, () -> repository.save(customer(3)));
+        assertEquals(List.of(), events);
+        assertThrows(IllegalStateException.class, () -> repository.save(customer(2)));
+        assertEquals(List.of("saved 2", "committed"), events);
+        // a rejected operation changes nothing
+        events.add("fail");
+        assertThrows(IllegalStateException.class, () -> repository.deleteById(1L));
+        assertThrows(IllegalStateException.class, () -> repository.save(customer(4)));
+        assertTrue(repository.existsById(1L));
+        assertFalse(repository.existsById(4L));
+    }
+
+    @Test
+    void writersOfDifferentStripesDoNotWaitForEachOther() throws Exception {
+        long blocked = 1;
+        long other = 2;
+        while (CustomerRepository.stripeOf(other) == CustomerRepository.stripeOf(blocked)) {
+            other++;
+        }
+        CountDownLatch saving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        repository.addListener(new CustomerRepository.Listener() {
+            @Override
+            public void saved(Customer customer) {
+                if (customer.getId() == 1) {
+                    saving.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Customer> save = pool.submit(() -> repository.save(customer(blocked)));
+            assertTrue(saving.await(10, TimeUnit.SECONDS));
+            // the stripe of id 1 is locked while its listener waits
+            repository.save(customer(other));
+            assertTrue(repository.existsById(other));
+            release.countDown();
+            save.get(10, TimeUnit.SECONDS);
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+        assertEquals(2, repository.count());
+    }
+
+    @Test
+    void compactModeAppliesToCustomersStoredInTheRepository() {
+        CustomerRepository compact = new CustomerRepository(4096);
+        Customer eric = compact.save(new Customer().setId(1).setName(new String("Eric"), new String("Meyer")));
+        Customer anne = compact.save(new Customer().setId(2).setName(new String("Anne"), new String("Meyer")));
+        assertSame(eric.getLastName(), anne.getLastName());
+        anne.setName(new String("Eric"), null);        // set after saving
+        assertSame(eric.getFirstName(), anne.getFirstName());
+        // the pool of one repository does not affect customers elsewhere
+        Customer tim = repository.save(new Customer().setId(3).setName("Tim", new String("Meyer")));
+        assertNotSame(eric.getLastName(), tim.getLastName());
+        compact.deleteById(2L);
+        anne.setName(new String("Anne"), null);        // deleted customers are no longer pooled
+        Customer other = compact.save(new Customer().setId(4).setName(new String("Anne"), ""));
+        assertNotSame(anne.getFirstName(), other.getFirstName());
+    }
+
+    @Test
+    void pagesFollowIdOrderWhileCustomersChange() {
+        LongStream.of(50, 10, 40, 20, 30).forEach(id -> repository.save(customer(id)));
+        //
+        List<Customer> first = repository.findPage(-1, 2);
+        assertEquals(List.of(10L, 20L), ids(first));
+        // changes behind and ahead of the cursor between pages
+        repository.save(customer(5));
+        repository.deleteById(30L);
+        repository.save(customer(35));
+        List<Customer> second = repository.findPage(first.get(1).getId(), 2);
+        assertEquals(List.of(35L, 40L), ids(second));
+        assertEquals(List.of(50L), ids(repository.findPage(40, 2)));
+        assertEquals(List.of(), ids(repository.findPage(50, 2)));
+        //
+        repository.deleteAll();
+        assertEquals(List.of(), ids(repository.findPage(-1, 10)));
+    }
+
+    @Test
+    void versionsAdvanceWithEveryChange() {
+        long initial = repository.version();
+        Customer eric = repository.save(customer(1));
+        repository.save(customer(2));
+        long eric1 = repository.version(1);
+        long anne1 = repository.version(2);
+        assertTrue(eric1 > initial && anne1 > eric1);
+        assertEquals(anne1, repository.version());
+        //
+        eric.addContact("eric98@yahoo.com");
+        assertTrue(repository.version(1) > eric1);
+        assertEquals(anne1, repository.version(2));
+        long beforeDelete = repository.version();
+        repository.deleteById(2L);
+        assertTrue(repository.version() > beforeDelete);
+        assertEquals(-1, repository.version(2));
+        // changes of removed customers do not count
+        long afterDelete = repository.version();
+        repository.delete(eric);
+        eric.setName("Eric", "Maier");
+        assertEquals(afterDelete + 1, repository.version());
+    }
+
+    @Test
+    void allocatedIdsAreUniqueAndFollowSavedIds() throws Exception {
+        repository.save(customer(41));
+        assertEquals(42, repository.nextId());
+        assertEquals(43, repository.save(new Customer()).getId());
+        //
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(() -> LongStream.range(0, PER_THREAD).map(i -> repository.nextId()).toArray()));
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Future<long[]> future : futures) {
+                for (long id : future.get(60, TimeUnit.SECONDS)) {
+                    assertTrue(ids.add(id) && id > 43, "id " + id);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void insertAllRejectsTakenIdsOfConcurrentInserts() throws Exception {
+        repository.save(customer(1));
+        assertEquals(List.of(1L, 2L), repository.insertAll(List.of(customer(1), customer(2), customer(3), customer(2))));
+        assertEquals(3, repository.count());
+        Customer assigned = new Customer().setName("Anne", "Bayer");
+        assertEquals(List.of(), repository.insertAll(List.of(assigned)));
+        assertTrue(repository.existsById(assigned.getId()));
+        // of concurrent inserts of the same ids each id is inserted exactly once
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<List<Long>>> inserts = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                inserts.add(pool.submit(() -> {
+                    start.await();
+                    List<Long> rejected = new ArrayList<>();
+                    for (long id = 100; id < 1100; id += 10) {
+                        rejected.addAll(repository.insertAll(LongStream.range(id, id + 10).mapToObj(i -> customer(i))
+                                .collect(Collectors.toList())));
+                    }
+                    return rejected;
+                }));
+            }
+            start.countDown();
+            long rejected = 0;
+            for (Future<List<Long>> insert : inserts) {
+                rejected += insert.get(60, TimeUnit.SECONDS).size();
+            }
+            assertEquals((THREADS - 1) * 1000L, rejected);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1004, repository.count());
+    }
+
+    @Test
+    void concurrentSavesAndDeletesLoseNoUpdates() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 2);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                long base = (long) t * PER_THREAD;
+                writers.add(pool.submit((Callable<Void>) () -> {
+                    start.await();
+                    for (long id = base; id < base + PER_THREAD; id++) {
+                        repository.save(customer(id));
+                        if (id % 4 == 0) {
+                            repository.deleteById(id);    // delete every 4th customer again
+                        }
+                    }
+                    return null;
+                }));
+            }
+            // readers run concurrently with writers and must never fail
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit((Callable<Void>) () -> {
+                    start.await();
+                    while (writing.get()) {
+                        for (Customer customer : repository.findAll()) {
+                            repository.findById(customer.getId());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> writer : writers) {
+                writer.get(60, TimeUnit.SECONDS);
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        //
+        long expected = (long) THREADS * PER_THREAD * 3 / 4;
+        assertEquals(expected, repository.count());
+        for (long id = 0; id < (long) THREADS * PER_THREAD; id++) {
+            assertEquals(id % 4 != 0, repository.existsById(id), "id " + id);
+        }
+    }
+
+    @Test
+    void searchRanksExactOverPrefixOverSubstringAndFollowsChanges() {
+        repository.save(new Customer().setId(1).setName("Eric", "Schulz"));
+        repository.save(new Customer().setId(2).setName("Anne", "Schul"));
+        repository.save(new Customer().setId(3).setName("Tim", "Borschulte"));
+        repository.save(new Customer().setId(4).setName("Schulte", "Meyer"));
+        repository.save(new Customer().setId(5).setName("Eric", "Bayer"));
+        //
+        assertEquals(List.of(2L, 1L, 4L, 3L), ids(repository.search("Schul", 10)));
+        assertEquals(List.of(2L, 1L), ids(repository.search("schul", 2)));
+        assertEquals(List.of(1L), ids(repository.search("eric SCH", 10)));
+        assertEquals(List.of(1L, 5L), ids(repository.search("er", 10)));	// short words match prefixes only
+        assertEquals(List.of(), ids(repository.search("  ", 10)));
+        assertEquals(List.of(1L), ids(repository.search("Schulz, Eric", 10)));	// punctuation separates words
+        assertEquals(List.of(4L), ids(repository.search("(Meyer; Schulte)", 10)));
+        //
+        repository.findById(1L).get().setName("Eric", "Maier");
+        repository.deleteById(2L);
+        assertEquals(List.of(4L, 3L), ids(repository.search("schul", 10)));
+        assertEquals(List.of(1L), ids(repository.search("aier", 10)));
+        repository.deleteAll();
+        assertEquals(0, repository.search("eric", 10).size());
+    }
+
+    @Test
+    void phoneticLookupFindsNamesThatSoundAlike() {
+        repository.save(new Customer().setId(1).setName("Erich", "Meyer"));
+        repository.save(new Customer().setId(2).setName("Anne", "Maier"));
+        repository.save(new Customer().setId(3).setName("Tim", "Schulz-M\u00fcller"));
+        repository.save(new Customer().setId(4).setName("Erik", "Bayer"));
+        //
+        assertEquals(List.of(1L, 2L), ids(repository.findByLastNamePhonetic("Mayer")));
+        assertEquals(List.of(3L), ids(repository.findByLastNamePhonetic("schulz-mueller")));
+        assertEquals(List.of(1L, 4L), ids(repository.findByFirstNamePhonetic("Erich")));
+        assertEquals(List.of(), ids(repository.findByLastNamePhonetic("")));
+        //
+        repository.findById(2L).get().setName("Anne", "Bauer");
+        repository.deleteById(1L);
+        assertEquals(List.of(), ids(repository.findByLastNamePhonetic("Mayer")));
+        assertEquals(List.of(2L, 4L), ids(repository.findByLastNamePhonetic("Baier")));
+    }
+
+
+    @Test
+    void statsFollowEveryChange() {
+        repository.save(new Customer().setId(1).setName("Eric", "Meyer").addContact("eric@example.com"));
+        repository.save(new Customer().setId(2).setName("Anne", "Bayer").setStatus(Customer.Status.Active)
+                .addContact("anne@example.com").addContact("030 123"));
+        repository.save(new Customer().setId(3).setName("Tim", "Schulz"));
+        CustomerStats stats = repository.stats();
+        assertEquals(3, stats.getCustomers());
+        assertEquals(2, stats.getStatuses().get(Customer.Status.New));
+        assertEquals(1, stats.getStatuses().get(Customer.Status.Active));
+        assertEquals(1, stats.getWithoutContacts());
+        assertEquals(3, stats.getContacts());
+        assertEquals(List.of(1L, 1L, 1L, 0L), List.copyOf(stats.getContactsPerCustomer().values()).subList(0, 4));
+        //
+        Customer eric = repository.findById(1L).get();
+        eric.setStatus(Customer.Status.Suspended);
+        eric.addContact("0172 555").addContact("+49 30 1");
+        repository.findById(2L).get().deleteAllContacts();
+        repository.save(new Customer().setId(3).setName("Tim", "Schulz").addContact("tim@example.com"));
+        stats = repository.stats();
+        assertEquals(3, stats.getCustomers());
+        assertEquals(1, stats.getStatuses().get(Customer.Status.New));
+        assertEquals(1, stats.getStatuses().get(Customer.Status.Suspended));
+        assertEquals(1, stats.getWithoutContacts());
+        assertEquals(4, stats.getContacts());
+        assertEquals(List.of(1L, 1L, 0L, 1L), List.copyOf(stats.getContactsPerCustomer().values()).subList(0, 4));
+        //
+        repository.deleteById(1L);
+        eric.setStatus(Customer.Status.Deleted);		// no longer counted
+        eric.deleteContact(0);
+        stats = repository.stats();
+        assertEquals(2, stats.getCustomers());
+        assertEquals(0, stats.getStatuses().get(Customer.Status.Suspended));
+        assertEquals(0, stats.getStatuses().get(Customer.Status.Deleted));
+        assertEquals(1, stats.getContacts());
+        repository.deleteAll();
+        stats = repository.stats();
+        assertEquals(0, stats.getCustomers());
+        assertEquals(0, stats.getContacts());
+        assertEquals(0, stats.getStatuses().get(Customer.Status.Active));
+        assertEquals(0, stats.getWithoutContacts());
+    }
+
+    @Test
+    void statsCountCustomersWithoutStatus() {
+        repository.save(new Customer().setId(1).setName("Eric", "Meyer").setStatus(null));
+        repository.save(new Customer().setId(2).setName("Anne", "Bayer").setStatus(Customer.Status.Active));
+        assertEquals(1, repository.stats().getWithoutStatus());
+        //
+        Customer anne = repository.findById(2L).get();
+        anne.setStatus(null);
+        assertEquals(2, repository.stats().getWithoutStatus());
+        assertEquals(0, repository.stats().getStatuses().get(Customer.Status.Active));
+        assertEquals(List.of(), ids(repository.findByStatus(Customer.Status.Active)));
+        anne.setStatus(Customer.Status.Suspended);
+        assertEquals(List.of(2L), ids(repository.findByStatus(Customer.Status.Suspended)));
+        repository.deleteById(1L);
+        CustomerStats stats = repository.stats();
+        assertEquals(0, stats.getWithoutStatus());
+        assertEquals(1, stats.getStatuses().get(Customer.Status.Suspended));
+        assertEquals(1, stats.getCustomers());
+    }
+
+    @Test
+    void parallelScanFindsMatchesInInsertionOrder() {
+        List<Customer> batch = new ArrayList<>();
+        for (long id = 1; id <= 20_000; id++) {
+            batch.add(new Customer().setId(id).setName("Eric", "Meyer" + id).addContact("eric" + id + (id % 3 == 0 ? "@gmx.de" : "@web.de")));
+        }
+        repository.saveAll(batch);
+        for (long id = 2; id <= 20_000; id += 4) {
+            repository.deleteById(id);      // holes in the snapshot
+        }
+        List<Long> expected = StreamSupport.stream(repository.findAll().spliterator(), false)
+                .filter(c -> c.getContacts().iterator().next().endsWith("@gmx.de")).map(Customer::getId)
+                .collect(Collectors.toList());
+        Spliterator<Customer> spliterator = repository.parallelStream().spliterator();
+        assertNotNull(spliterator.trySplit());
+        //
+        List<Customer> found = repository.findAll(c -> c.getContacts().iterator().next().endsWith("@gmx.de"));
+        assertEquals(expected, ids(found));
+        assertEquals(expected.size(), repository.count(c -> c.getContacts().iterator().next().endsWith("@gmx.de")));
+        assertEquals(15_000, repository.parallelStream().count());
+        assertEquals(repository.count(), repository.stream().count());
+        // snapshot is not affected by later changes
+        Stream<Customer> stream = repository.parallelStream();
+        repository.deleteAll();
+        assertEquals(15_000, stream.count());
+        assertEquals(0, repository.count(c -> true));
+    }
+
+    private static Customer customer(long id) {
+        return new Customer().setId(id).setName("Eric", "Meyer");
+    }
+
+    private static List<Long> ids(Iterable<Customer> customers) {
+        return StreamSupport.stream(customers.spliterator(), false).map(Customer::getId)
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,135 @@
+package de.freerider.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.freerider.datamodel.Customer;
+
+class CustomerWriteAheadLogTests {
+
+    @TempDir
+    Path dataDir;
+
+
+    @Test
+    void replayRestoresSavesChangesAndDeletes() throws IOException {
+        CustomerRepository repository = new CustomerRepository();
+        CustomerWriteAheadLog wal = open(repository);
+        Customer eric = repository.save(new Customer().setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com"));
+        repository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        repository.save(new Customer().setId(3).setName("Tim", "Schulz-Mueller"));
+        eric.setName("Eric", "Maier");
+        eric.addContact("(030) 7000-640000");
+        eric.setStatus(Customer.Status.Active);
+        repository.deleteById(2L);
+        wal.close();
+        //
+        CustomerRepository restored = new CustomerRepository();
+        open(restored).close();
+        assertEquals(2, restored.count());
+        assertFalse(restored.existsById(2L));
+        Customer customer = restored.findById(1L).get();
+        assertEquals("Maier", customer.getLastName());
+        assertEquals(Customer.Status.Active, customer.getStatus());
+        assertEquals(List.of("eric98@yahoo.com", "(030) 7000-640000"), contacts(customer));
+        assertEquals(4, restored.nextId());
+    }
+
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        CustomerRepository repository = new CustomerRepository();
+        CustomerWriteAheadLog wal = open(repository);
+        repository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        wal.close();
+        // simulate crash in the middle of writing the next record
+        Files.write(dataDir.resolve("customers-0000000000000000.wal"), new byte[] { 0, 0, 0, 42, 1, 7 }, StandardOpenOption.APPEND);
+        //
+        CustomerRepository restored = new CustomerRepository();
+        wal = open(restored);
+        restored.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        wal.close();
+        CustomerRepository again = new CustomerRepository();
+        open(again).close();
+        assertEquals(2, again.count());
+    }
+
+    @Test
+    void snapshotReplacesOlderGenerations() throws IOException {
+        CustomerRepository repository = new CustomerRepository();
+        CustomerWriteAheadLog wal = open(repository);
+        for (long id = 1; id <= 1000; id++) {
+            repository.save(new Customer().setId(id).setName("Eric", "Meyer").addContact("eric" + id + "@yahoo.com"));
+        }
+        assertTrue(wal.snapshot());
+        repository.deleteById(1L);
+        repository.findById(2L).get().setName("Anne", "Bayer");
+        wal.close();
+        //
+        try (Stream<Path> files = Files.list(dataDir)) {
+            assertEquals(List.of("customers-0000000000000001.snapshot", "customers-0000000000000001.wal"),
+                    files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList()));
+        }
+        CustomerRepository restored = new CustomerRepository();
+        open(restored).close();
+        assertEquals(999, restored.count());
+        assertEquals("Bayer", restored.findById(2L).get().getLastName());
+        assertEquals(List.of("eric1000@yahoo.com"), contacts(restored.findById(1000L).get()));
+    }
+
+    @Test
+    void concurrentWritersAreAllDurable() throws Exception {
+        CustomerRepository repository = new CustomerRepository();
+        CustomerWriteAheadLog wal = open(repository);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        repository.save(new Customer().setName("Eric", "Meyer"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+            wal.close();
+        }
+        CustomerRepository restored = new CustomerRepository();
+        open(restored).close();
+        assertEquals(1600, restored.count());
+    }
+
+
+    private CustomerWriteAheadLog open(CustomerRepository repository) throws IOException {
+        CustomerWriteAheadLog wal = new CustomerWriteAheadLog(repository, dataDir.toString(), true, true, 0, false);
+        wal.open();
+        return wal;
+    }
+
+    private static List<String> contacts(Customer customer) {
+        List<String> contacts = new ArrayList<>();
+        customer.getContacts().forEach(contacts::add);
+        return contacts;
+    }
+
+}
@@ -0,0 +1,162 @@
+package de.freerider.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class LongIndexMapTests {
+
+    /**
+     * mask of the hash table of a map with default capacity (16 entries, 32 slots).
+     */
+    private static final int MASK = 31;
+
+    @Test
+    void probingWrapsAroundTheEndOfTheTable() {
+        LongIndexMap<String> map = new LongIndexMap<String>();
+        long[] last = keysWithHome(MASK, 3);
+        long first = keysWithHome(0, 1)[0];
+        for (long key : last) {
+            map.put(key, "v" + key);
+        }
+        map.put(first, "first");    // home slot 0 is taken by a wrapped key
+        for (long key : last) {
+            assertEquals("v" + key, map.get(key));
+        }
+        assertEquals("first", map.get(first));
+        // removal shifts wrapped entries back across the end of the table
+        assertEquals("v" + last[0], map.remove(last[0]));
+        assertFalse(map.containsKey(last[0]));
+        assertEquals("v" + last[2], map.get(last[2]));
+        assertEquals("first", map.remove(first));
+        assertEquals("v" + last[1], map.get(last[1]));
+        assertEquals("v" + last[2], map.get(last[2]));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    void removedKeysCanBeReinsertedIntoProbeChains() {
+        LongIndexMap<String> map = new LongIndexMap<String>();
+        long[] chain = keysWithHome(5, 5);
+        for (long key : chain) {
+            map.put(key, "v" + key);
+        }
+        assertEquals("v" + chain[1], map.remove(chain[1]));
+        assertEquals("v" + chain[3], map.remove(chain[3]));
+        assertNull(map.remove(chain[3]));
+        assertNull(map.get(chain[1]));
+        assertEquals("v" + chain[4], map.get(chain[4]));
+        // a reinserted key is found again and moves to the end of insertion order
+        assertNull(map.put(chain[1], "again"));
+        assertEquals("again", map.put(chain[1], "again2"));
+        assertEquals(List.of("v" + chain[0], "v" + chain[2], "v" + chain[4], "again2"), values(map));
+        for (long key : new long[] { chain[0], chain[2], chain[4] }) {
+            assertEquals("v" + key, map.get(key));
+        }
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    void fullDenseArraysAreCompactedWhenAQuarterIsRemovedOtherwiseGrown() {
+        LongIndexMap<Long> compacted = filled(16);
+        for (long key = 0; key < 4; key++) {
+            compacted.remove(key);
+        }
+        compacted.put(16L, 16L);
+        assertEquals(16, compacted.capacity());
+        assertEquals(range(4, 17), values(compacted));
+        //
+        LongIndexMap<Long> grown = filled(16);
+        for (long key = 0; key < 3; key++) {
+            grown.remove(key);
+        }
+        grown.put(16L, 16L);
+        assertEquals(32, grown.capacity());
+        assertEquals(range(3, 17), values(grown));
+        for (long key = 3; key < 17; key++) {
+            assertEquals(key, grown.get(key));
+        }
+    }
+
+    @Test
+    void removingTheLastEntryClearsTheDenseArrays() {
+        LongIndexMap<Long> map = new LongIndexMap<Long>();
+        map.clear();    // clear on an empty map is a no-op
+        assertEquals(0, map.size());
+        for (long key = 0; key < 16; key++) {
+            map.put(key, key);
+        }
+        for (long key = 0; key < 16; key++) {
+            map.remove(key);
+        }
+        assertEquals(0, map.size());
+        assertFalse(map.iterator().hasNext());
+        // dense arrays were reset, refilling them neither compacts nor grows
+        Iterator<Long> iterator = map.iterator();
+        for (long key = 100; key < 116; key++) {
+            map.put(key, key);
+        }
+        assertTrue(iterator.hasNext());
+        assertEquals(16, map.capacity());
+        assertEquals(range(100, 116), values(map));
+        assertNull(map.get(0));
+    }
+
+    @Test
+    void iteratorSkipsRemovedEntriesAndFailsFastOnReallocation() {
+        LongIndexMap<Long> map = filled(16);
+        Iterator<Long> iterator = map.iterator();
+        assertEquals(0L, iterator.next());
+        map.remove(1L);
+        assertEquals(2L, iterator.next());
+        map.put(16L, 16L);      // 15 of 16 positions live: dense arrays grow
+        assertThrows(ConcurrentModificationException.class, iterator::hasNext);
+        assertThrows(ConcurrentModificationException.class, iterator::next);
+    }
+
+    /**
+     * Find keys whose hash puts them into the given slot of a map with default capacity.
+     */
+    private static long[] keysWithHome(int home, int n) {
+        long[] keys = new long[n];
+        int found = 0;
+        for (long key = 1; found < n; key++) {
+            if ((LongHashTable.hash(key) & MASK) == home) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+
+    private static LongIndexMap<Long> filled(int n) {
+        LongIndexMap<Long> map = new LongIndexMap<Long>();
+        for (long key = 0; key < n; key++) {
+            map.put(key, key);
+        }
+        return map;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> range = new ArrayList<Long>();
+        for (long i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    private static <V> List<V> values(LongIndexMap<V> map) {
+        List<V> values = new ArrayList<V>();
+        map.forEach(values::add);
+        return values;
+    }
+
+}
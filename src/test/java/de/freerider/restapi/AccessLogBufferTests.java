@@ -0,0 +1,70 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class AccessLogBufferTests {
+
+    @Test
+    void fullBufferRejectsUntilConsumerTakes() {
+        AccessLogBuffer<Integer> buffer = new AccessLogBuffer<Integer>(3);
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4));
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    void concurrentProducersDeliverEveryAcceptedElementOnce() throws InterruptedException {
+        AccessLogBuffer<Integer> buffer = new AccessLogBuffer<Integer>(64);
+        int producers = 4;
+        int perProducer = 50_000;
+        int[] accepted = new int[producers];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    if (buffer.offer(producer * perProducer + i)) {
+                        accepted[producer]++;
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        // elements of one producer arrive in the order they were offered
+        int[] last = { -1, -1, -1, -1 };
+        int[] taken = new int[producers];
+        boolean running = true;
+        while (running) {
+            running = threads.stream().anyMatch(Thread::isAlive);
+            for (Integer element = buffer.poll(); element != null; element = buffer.poll()) {
+                int producer = element / perProducer;
+                assertTrue(element % perProducer > last[producer]);
+                last[producer] = element % perProducer;
+                taken[producer]++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int p = 0; p < producers; p++) {
+            assertEquals(accepted[p], taken[p]);
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AccessLogTests {
+
+    @Test
+    void entriesAreWrittenAsJsonLinesBeforeClose(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("access.log");
+        AccessLog accessLog = new AccessLog(true, 16, file.toString());
+        accessLog.record("GET", "/api/v1/customers", 200, 1_234_000, 4570);
+        accessLog.record("DELETE", "/api/v1/customers/7", 404, 56_000, 0);
+        accessLog.close();
+        //
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+        JsonNode get = new ObjectMapper().readTree(lines.get(0));
+        assertEquals("GET", get.get("method").asText());
+        assertEquals("/api/v1/customers", get.get("uri").asText());
+        assertEquals(200, get.get("status").asInt());
+        assertEquals(1234, get.get("latencyMicros").asLong());
+        assertEquals(4570, get.get("bytes").asLong());
+        assertEquals(404, new ObjectMapper().readTree(lines.get(1)).get("status").asInt());
+        assertEquals(0, accessLog.dropped());
+    }
+
+}
@@ -0,0 +1,77 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+class CustomerExporterTests {
+
+    private final CustomerRepository repository = new CustomerRepository();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final CustomerExporter exporter = new CustomerExporter(repository, objectMapper.getFactory());
+
+
+    @Test
+    void exportCoversCustomersStoredAtStart() throws IOException {
+        LongStream.rangeClosed(1, 2500).forEach(id -> repository.save(customer(id)));
+        // first page is written: delete a customer of a later page, add new customers
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                if (repository.existsById(2000L)) {
+                    repository.deleteById(2000L);
+                    repository.save(customer(1500).setName("Anne", "Bayer"));
+                    repository.save(customer(5000));
+                }
+            }
+        };
+        exporter.run(CustomerExporter.Format.NDJSON, out);
+        //
+        List<Long> expected = LongStream.rangeClosed(1, 2500).filter(id -> id != 2000).boxed()
+                .collect(Collectors.toList());
+        List<Long> ids = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            ids.add(objectMapper.readTree(line).get("id").asLong());
+        }
+        assertEquals(expected, ids);
+        assertEquals("{\"id\":1500,\"firstName\":\"Anne\",\"lastName\":\"Bayer\",\"contacts\":\"eric1500@yahoo.com\"}",
+                out.toString(StandardCharsets.UTF_8).split("\n")[1499]);
+    }
+
+    @Test
+    void csvFieldsAreQuoted() throws IOException {
+        repository.save(customer(1).addContact("(030) 7000-640000"));
+        repository.save(new Customer().setId(2).setName("Anne, \"Annie\"", "Bayer"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.run(CustomerExporter.Format.CSV, out);
+        assertEquals("id,firstName,lastName,contacts\r\n"
+                + "1,Eric,Meyer,eric1@yahoo.com; (030) 7000-640000\r\n"
+                + "2,\"Anne, \"\"Annie\"\"\",Bayer,\r\n", out.toString(StandardCharsets.UTF_8));
+        //
+        repository.deleteAll();
+        out.reset();
+        exporter.run(CustomerExporter.Format.CSV, out);
+        assertEquals("id,firstName,lastName,contacts\r\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+
+    private static Customer customer(long id) {
+        return new Customer().setId(id).setName("Eric", "Meyer").addContact("eric" + id + "@yahoo.com");
+    }
+
+}
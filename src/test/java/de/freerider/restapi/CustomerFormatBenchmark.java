@@ -0,0 +1,122 @@
+package de.freerider.restapi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+/**
+ * Bytes on the wire and encode time of GET /customers per representation,
+ * uncompressed and with gzip and deflate, run with:
+ * <pre>{@code
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/classes:target/test-classes:$(cat target/cp.txt) de.freerider.restapi.CustomerFormatBenchmark [customers]
+ * }</pre>
+ * Default 10000 customers. Not a unit test, surefire does not pick up this class.
+ */
+public class CustomerFormatBenchmark {
+
+    private static final int ROUNDS = 50;
+
+    /**
+     * Writes customers to a stream.
+     */
+    private interface Encoder {
+        void encode(List<Customer> customers, OutputStream out) throws IOException;
+    }
+
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        List<Customer> customers = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            customers.add(new Customer().setId(i).setName(i % 2 == 0 ? "Eric" : "Anne", "Meyer" + (i % 500))
+                    .addContact("eric" + i + "@yahoo.com").addContact("(030) 7000-" + i)
+                    .setStatus(Customer.Status.Active));
+        }
+        CustomerRepository repository = new CustomerRepository();
+        CustomerJsonCache cache = new CustomerJsonCache(repository, new ObjectMapper());
+        cache.writeArray(customers, OutputStream.nullOutputStream());		// fill cache
+        //
+        System.out.printf("%d customers, average of %d rounds%n", count, ROUNDS);
+        System.out.printf("%-12s %10s %10s %10s %10s %10s %10s%n",
+                "format", "bytes", "gzip", "deflate", "encode ms", "+gzip ms", "+defl. ms");
+        report("json", customers, generator(new JsonFactory()));
+        report("json cached", customers, (list, out) -> cache.writeArray(list, out));
+        report("cbor", customers, generator(new CBORFactory()));
+        report("smile", customers, generator(new SmileFactory()));
+    }
+
+
+    /**
+     * Encoder with the streaming serializer of CustomersController.
+     */
+    private static Encoder generator(JsonFactory factory) {
+        return (customers, out) -> {
+            try (JsonGenerator generator = factory.createGenerator(out)) {
+                generator.writeStartArray();
+                for (Customer customer : customers) {
+                    CustomerJsonCache.write(customer, generator);
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
+
+    private static void report(String name, List<Customer> customers, Encoder encoder) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        ByteArrayOutputStream deflate = new ByteArrayOutputStream();
+        double plainMs = time(() -> {
+            plain.reset();
+            encoder.encode(customers, plain);
+        });
+        double gzipMs = time(() -> {
+            gzip.reset();
+            // buffered like the servlet response in front of the compression filter
+            try (OutputStream out = new BufferedOutputStream(new GZIPOutputStream(gzip), 8192)) {
+                encoder.encode(customers, out);
+            }
+        });
+        double deflateMs = time(() -> {
+            deflate.reset();
+            try (OutputStream out = new BufferedOutputStream(new DeflaterOutputStream(deflate), 8192)) {
+                encoder.encode(customers, out);
+            }
+        });
+        System.out.printf("%-12s %10d %10d %10d %10.2f %10.2f %10.2f%n", name, plain.size(), gzip.size(),
+                deflate.size(), plainMs, gzipMs, deflateMs);
+    }
+
+    private interface Action {
+        void run() throws IOException;
+    }
+
+    /**
+     * Average time of ROUNDS runs in ms after as many warm-up runs.
+     */
+    private static double time(Action action) throws IOException {
+        for (int i = 0; i < ROUNDS; i++) {
+            action.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            action.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+class CustomerImporterTests {
+
+    private final CustomerRepository repository = new CustomerRepository();
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+
+    @Test
+    void linesAreSavedInBatches() throws IOException {
+        AtomicInteger batches = new AtomicInteger();
+        repository.addListener(new CustomerRepository.Listener() {
+            @Override
+            public void committed() {
+                batches.incrementAndGet();
+            }
+        });
+        StringBuilder ndjson = new StringBuilder();
+        for (int id = 1; id <= 25; id++) {
+            ndjson.append("{\"id\":").append(id).append(",\"name\":\"Meyer\",\"first\":\"Eric\"}\n");
+        }
+        List<JsonNode> results = run(ndjson.toString(), 10);
+        assertEquals(25, repository.count());
+        assertEquals(3, batches.get());
+        assertEquals(26, results.size());
+        assertEquals("created", results.get(24).get("status").asText());
+        assertEquals(25, results.get(24).get("id").asLong());
+        assertEquals(25, results.get(25).get("created").asLong());
+    }
+
+    @Test
+    void rejectedLinesDoNotAffectOthers() throws IOException {
+        repository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        String ndjson = "{\"id\":1,\"name\":\"Meyer\",\"first\":\"Eric\"}\n"
+                + "{\"id\":2,\"name\":\"Bayer\",\"first\":\"Anne\"}\n"
+                + "\n"
+                + "{\"id\":2,\"name\":\"Bayer\",\"first\":\"Anne\"}\n"
+                + "{\"id\":3,\"name\":\n"
+                + "{\"id\":4}\n"
+                + "{\"name\":\"Schulz\",\"first\":\"Tim\"}\n";
+        List<JsonNode> results = run(ndjson, 100);
+        assertEquals(List.of("conflict", "created", "conflict", "malformed", "invalid", "created"),
+                statuses(results.subList(0, results.size() - 1)));
+        assertEquals(4, results.get(2).get("line").asLong());
+        assertEquals(3, results.get(5).get("id").asLong());
+        JsonNode summary = results.get(results.size() - 1);
+        assertEquals(7, summary.get("lines").asLong());
+        assertEquals(2, summary.get("created").asLong());
+        assertEquals(4, summary.get("rejected").asLong());
+        assertEquals(3, repository.count());
+        assertTrue(repository.existsById(3L));
+    }
+
+
+    private List<JsonNode> run(String ndjson, int batchSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CustomerImporter(repository, objectMapper, this::customer, batchSize)
+                .run(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)), out);
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            results.add(objectMapper.readTree(line));
+        }
+        return results;
+    }
+
+    /**
+     * Simplified factory of the controller: names are required, missing ids are
+     * assigned when saved.
+     */
+    private Optional<Customer> customer(Map<String, Object> attributes) {
+        if (attributes.get("name") == null || attributes.get("first") == null) {
+            return Optional.empty();
+        }
+        long id = attributes.containsKey("id") ? ((Number) attributes.get("id")).longValue() : -1;
+        return Optional.of(new Customer().setId(id)
+                .setName((String) attributes.get("first"), (String) attributes.get("name")));
+    }
+
+    private static List<String> statuses(List<JsonNode> results) {
+        List<String> statuses = new ArrayList<>();
+        results.forEach(result -> statuses.add(result.has("reason") ? result.get("reason").asText()
+                : result.get("status").asText()));
+        return statuses;
+    }
+
+}
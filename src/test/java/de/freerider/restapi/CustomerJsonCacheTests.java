@@ -0,0 +1,76 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+class CustomerJsonCacheTests {
+
+    private final CustomerRepository repository = new CustomerRepository();
+
+    private final CustomerJsonCache cache = new CustomerJsonCache(repository, new ObjectMapper());
+
+
+    @BeforeEach
+    void register() {
+        cache.register();
+    }
+
+
+    @Test
+    void cachedBytesAreReusedUntilCustomerChanges() {
+        Customer eric = repository.save(new Customer().setId(1).setName("Eric", "Meyer").addContact("eric98@yahoo.com"));
+        byte[] json = cache.get(eric);
+        assertEquals("{\"id\":1,\"firstName\":\"Eric\",\"lastName\":\"Meyer\",\"contacts\":\"eric98@yahoo.com\"}",
+                new String(json, StandardCharsets.UTF_8));
+        assertSame(json, cache.get(eric));
+        //
+        eric.setName("Eric", "Maier");
+        assertEquals("Maier", lastName(cache.get(eric)));
+        eric.addContact("(030) 7000-640000");
+        assertEquals("{\"id\":1,\"firstName\":\"Eric\",\"lastName\":\"Maier\",\"contacts\":\"eric98@yahoo.com; (030) 7000-640000\"}",
+                new String(cache.get(eric), StandardCharsets.UTF_8));
+        //
+        repository.deleteById(1L);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void replacedCustomerIsNotServedFromStaleEntry() throws IOException {
+        Customer eric = repository.save(new Customer().setId(1).setName("Eric", "Meyer"));
+        Customer anne = repository.save(new Customer().setId(2).setName("Anne", "Bayer"));
+        cache.get(eric);
+        // a reader still holding the replaced instance must not poison the entry
+        Customer replacement = repository.save(new Customer().setId(1).setName("Tim", "Schulz"));
+        cache.get(eric);
+        assertEquals("Schulz", lastName(cache.get(replacement)));
+        //
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.writeArray(List.of(replacement, anne), out);
+        assertEquals(2, new ObjectMapper().readTree(out.toByteArray()).size());
+        repository.deleteAll();
+        assertEquals(0, cache.size());
+    }
+
+
+    private static String lastName(byte[] json) {
+        try {
+            return new ObjectMapper().readTree(json).get("lastName").asText();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
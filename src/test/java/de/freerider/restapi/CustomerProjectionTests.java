@@ -0,0 +1,78 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+
+class CustomerProjectionTests {
+
+    @Test
+    void projectionsAreCachedPerFieldSet() {
+        CustomerProjection projection = CustomerProjection.of("id,lastName").get();
+        assertSame(projection, CustomerProjection.of(" lastName , id,id").get());
+        assertSame(CustomerProjection.ALL, CustomerProjection.of("contacts,lastName,firstName,id").get());
+        assertSame(CustomerProjection.ALL, CustomerProjection.of(null).get());
+        assertFalse(CustomerProjection.of("id,name").isPresent());
+        assertFalse(CustomerProjection.of("").isPresent());
+        assertFalse(CustomerProjection.of(",").isPresent());
+    }
+
+    @Test
+    void onlySelectedGettersAreCalled() throws IOException {
+        List<String> calls = new ArrayList<>();
+        Customer customer = new Customer() {
+            @Override
+            public long getId() {
+                calls.add("id");
+                return super.getId();
+            }
+
+            @Override
+            public String getFirstName() {
+                calls.add("firstName");
+                return super.getFirstName();
+            }
+
+            @Override
+            public String getLastName() {
+                calls.add("lastName");
+                return super.getLastName();
+            }
+
+            @Override
+            public Iterable<String> getContacts() {
+                calls.add("contacts");
+                return super.getContacts();
+            }
+        };
+        customer.setId(7).setName("Eric", "Meyer").addContact("eric98@yahoo.com");
+        calls.clear();
+        //
+        assertEquals("{\"id\":7,\"lastName\":\"Meyer\"}", write(CustomerProjection.of("lastName,id").get(), customer));
+        assertEquals(List.of("id", "lastName"), calls);
+        assertEquals("{\"id\":7,\"firstName\":\"Eric\",\"lastName\":\"Meyer\",\"contacts\":\"eric98@yahoo.com\"}",
+                write(CustomerProjection.ALL, customer));
+    }
+
+
+    private static String write(CustomerProjection projection, Customer customer) throws IOException {
+        StringWriter json = new StringWriter();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(json)) {
+            projection.write(customer, generator);
+        }
+        return json.toString();
+    }
+
+}
@@ -0,0 +1,117 @@
+package de.freerider.restapi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.freerider.datamodel.Customer;
+import de.freerider.repository.CustomerRepository;
+
+class CustomerQueryTests {
+
+    @Test
+    void conditionsAndSortOrderAreApplied() {
+        CustomerRepository repository = new CustomerRepository();
+        repository.save(new Customer().setId(1).setName("Eric", "Meyer").setStatus(Customer.Status.Active));
+        repository.save(new Customer().setId(2).setName("Anne", "Bayer").setStatus(Customer.Status.Active));
+        repository.save(new Customer().setId(3).setName("Tim", "Baumann").setStatus(Customer.Status.New));
+        repository.save(new Customer().setId(4).setName("Sofia", "Maier").setStatus(Customer.Status.Active)
+                .addContact("sofia@example.com"));
+        repository.save(new Customer().setId(5).setName("Max", "Berger").setStatus(Customer.Status.Active));
+        //
+        assertEquals(List.of(2L, 5L), ids(find(repository, "status=Active&lastName^=b")));
+        assertEquals(List.of(5L, 2L, 3L), ids(find(repository, "lastName%5E=B&sort=-lastName")));
+        assertEquals(List.of(1L, 4L), ids(find(repository, "lastName~=Mayer&sort=id")));
+        assertEquals(List.of(1L, 4L), ids(find(repository, "lastName=mayer&phonetic=true&sort=id")));
+        assertEquals(List.of(1L, 4L), ids(find(repository, "phonetic=yes&lastName=mayer&sort=id")));
+        assertEquals(List.of(1L, 4L), ids(find(repository, "lastName=mayer&phonetic=1")));
+        assertEquals(List.of(), ids(find(repository, "lastName=mayer&phonetic=off")));
+        assertEquals(List.of(4L), ids(find(repository, "contact=sofia%40example.com&status=Active")));
+        assertEquals(List.of(3L, 4L), ids(find(repository, "id>=3&id<5&limit=1&sort=id")));
+        assertEquals(List.of(1L, 4L, 3L), ids(find(repository, "firstName!=Max&status!=InRegistration&lastName!=Bayer&sort=firstName,-id")));
+        assertEquals(List.of(2L, 5L, 4L, 1L, 3L), ids(find(repository, "sort=-status,lastName")));
+        //
+        assertFalse(CustomerQuery.of("name=Meyer").isPresent());
+        assertFalse(CustomerQuery.of("status^=A").isPresent());
+        assertFalse(CustomerQuery.of("status=Gone").isPresent());
+        assertFalse(CustomerQuery.of("id=x").isPresent());
+        assertFalse(CustomerQuery.of("sort=contact").isPresent());
+        assertFalse(CustomerQuery.of("sort=").isPresent());
+        assertFalse(CustomerQuery.of("sort=,").isPresent());
+        assertFalse(CustomerQuery.of("lastName=%E").isPresent());
+        assertFalse(CustomerQuery.of("lastName=mayer&phonetic=maybe").isPresent());
+    }
+
+    @Test
+    void plansAreCachedWithoutPagingParameters() {
+        CustomerQuery query = CustomerQuery.of("status=New&lastName^=M&sort=-id").get();
+        assertSame(query, CustomerQuery.of("status=New&lastName^=M&sort=-id&limit=10").get());
+        assertSame(query, CustomerQuery.of("cursor=abc&status=New&lastName^=M&fields=id&sort=-id").get());
+        assertTrue(query.isFiltered());
+        assertTrue(query.isSorted());
+        assertSame(CustomerQuery.ALL, CustomerQuery.of(null).get());
+        assertSame(CustomerQuery.ALL, CustomerQuery.of("limit=10&fields=id").get());
+        assertFalse(CustomerQuery.ALL.isFiltered());
+        // recently used plans stay cached while others are evicted
+        for (int i = 0; i < 3000; i++) {
+            CustomerQuery.of("id=" + i);
+            if (i % 500 == 0) {
+                assertSame(query, CustomerQuery.of("status=New&lastName^=M&sort=-id").get());
+            }
+        }
+        assertSame(query, CustomerQuery.of("status=New&lastName^=M&sort=-id").get());
+        assertTrue(CustomerQuery.cached() <= 1024);
+    }
+
+
+    @Test
+    void pagesFollowKeysetCursorsWhileCustomersChange() {
+        CustomerRepository repository = new CustomerRepository();
+        String[] lastNames = { "Meyer", "Bayer", "Schulz", "Baumann", "Berger", "Maier" };
+        for (long id = 1; id <= 12; id++) {
+            repository.save(new Customer().setId(id).setName("Eric", lastNames[(int) (id % lastNames.length)])
+                    .setStatus(id % 2 == 0 ? Customer.Status.Active : Customer.Status.New));
+        }
+        CustomerQuery sorted = CustomerQuery.of("sort=lastName,-id").get();
+        List<Customer> page = sorted.page(repository, null, 4);
+        assertEquals(List.of(9L, 3L, 7L, 1L), ids(page));       // Baumann, Bayer
+        Customer after = sorted.after(sorted.cursor(page.get(3))).get();
+        repository.deleteById(3L);                                  // already returned
+        repository.save(new Customer().setId(13).setName("Eric", "Bauer"));       // before the cursor
+        repository.save(new Customer().setId(14).setName("Eric", "Bergmann"));
+        assertEquals(List.of(10L, 4L, 14L, 11L), ids(sorted.page(repository, after, 4)));
+        //
+        CustomerQuery filtered = CustomerQuery.of("status=Active&lastName!=Maier").get();
+        page = filtered.page(repository, null, 2);
+        assertEquals(List.of(2L, 4L), ids(page));
+        assertEquals(List.of(6L, 8L, 10L, 12L), ids(filtered.page(repository, filtered.after(filtered.cursor(page.get(1))).get(), 10)));
+        CustomerQuery scanned = CustomerQuery.of("id!=3&lastName!=Maier").get();
+        page = scanned.page(repository, null, 3);
+        assertEquals(List.of(1L, 2L, 4L), ids(page));
+        assertEquals(List.of(6L, 7L, 8L), ids(scanned.page(repository, scanned.after(scanned.cursor(page.get(2))).get(), 3)));
+        //
+        String cursor = sorted.cursor(page.get(0));
+        assertFalse(filtered.after(cursor).isPresent());
+        assertFalse(CustomerQuery.of("sort=firstName").get().after(cursor).isPresent());
+        assertFalse(sorted.after(filtered.cursor(page.get(0))).isPresent());
+        assertFalse(sorted.after("AAAA").isPresent());
+        assertFalse(sorted.after("%%").isPresent());
+    }
+
+    private static List<Customer> find(CustomerRepository repository, String queryString) {
+        return CustomerQuery.of(queryString).get().find(repository);
+    }
+
+    private static List<Long> ids(List<Customer> customers) {
+        List<Long> ids = new ArrayList<>();
+        customers.forEach(customer -> ids.add(customer.getId()));
+        return ids;
+    }
+
+}
@@ -0,0 +1,190 @@
+package de.freerider.restapi;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Load test driver to compare request execution on platform threads and on
+ * virtual threads (see ServerConfig). Start the server in either mode, then
+ * run the driver against it, e.g. with Java 21:
+ * <pre>{@code
+ * mvn package -DskipTests && mvn test-compile
+ * java -jar target/app-0.0.1-SNAPSHOT.jar --server.tomcat.max-connections=20000 [--app.server.virtual-threads=true]
+ * java -cp target/test-classes de.freerider.restapi.RequestLoadBenchmark [connections] [seconds] [port]
+ * }</pre>
+ * Defaults: 10000 connections, 30 seconds, port 8080. Server and driver each
+ * need a file descriptor per connection (ulimit -n).
+ *
+ * Every connection sends requests back to back over one keep-alive connection:
+ * GET /customers/1, every 10th request a PUT /customers/1 that waits for the
+ * write-ahead log. Latency is measured per request after a warm-up of a quarter
+ * of the duration. Not a unit test, surefire does not pick up this class.
+ */
+public class RequestLoadBenchmark {
+
+    private static final String GET = "GET /api/v1/customers/1 HTTP/1.1\r\nHost: localhost\r\n\r\n";
+
+    private static final String PUT_BODY = "[{\"id\":1,\"name\":\"Meyer\",\"first\":\"Eric\",\"contacts\":\"eric98@yahoo.com\"}]";
+
+    private static final String PUT = "PUT /api/v1/customers/1 HTTP/1.1\r\nHost: localhost\r\n"
+            + "Content-Type: application/json\r\nContent-Length: " + PUT_BODY.length() + "\r\n\r\n" + PUT_BODY;
+
+
+    public static void main(String[] args) throws InterruptedException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+        //
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            executor = Executors.newCachedThreadPool();		// one platform thread per connection
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(seconds) / 4;
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long[][] latencies = new long[connections][];
+        AtomicLong errors = new AtomicLong();
+        AtomicReference<IOException> firstError = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            int connection = i;
+            executor.execute(() -> {
+                try {
+                    latencies[connection] = run(port, measureFrom, end);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    firstError.compareAndSet(null, e);
+                    latencies[connection] = new long[0];
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        executor.shutdown();
+        //
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        double measured = (end - measureFrom) / 1e9;
+        System.out.printf("%d connections, %d failed, %d requests in %.0f s measured%n",
+                connections, errors.get(), all.length, measured);
+        if (firstError.get() != null) {
+            System.out.println("first failure: " + firstError.get());
+        }
+        if (all.length > 0) {
+            System.out.printf("throughput %.0f requests/s, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    all.length / measured, percentile(all, 0.50), percentile(all, 0.99), all[all.length - 1] / 1e6);
+        }
+    }
+
+
+    /**
+     * Send requests over one connection until end, return latencies in ns of
+     * requests started after measureFrom.
+     */
+    private static long[] run(int port, long measureFrom, long end) throws IOException {
+        long[] latencies = new long[64];
+        int count = 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port), 60_000);
+            socket.setSoTimeout(60_000);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            byte[] get = GET.getBytes(StandardCharsets.US_ASCII);
+            byte[] put = PUT.getBytes(StandardCharsets.US_ASCII);
+            for (long n = 0;; n++) {
+                long t0 = System.nanoTime();
+                if (t0 >= end) {
+                    break;
+                }
+                out.write(n % 10 == 9 ? put : get);
+                out.flush();
+                int status = readResponse(in);
+                if (status != 200) {
+                    throw new IOException("status " + status);
+                }
+                if (t0 >= measureFrom) {
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - t0;
+                }
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Read response with Content-Length or chunked body, return status code.
+     */
+    private static int readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int status = Integer.parseInt(statusLine.substring(9, 12));
+        long length = 0;
+        boolean chunked = false;
+        for (String header = readLine(in); !header.isEmpty(); header = readLine(in)) {
+            String name = header.substring(0, Math.max(0, header.indexOf(':'))).trim();
+            String value = header.substring(header.indexOf(':') + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                length = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = value.equalsIgnoreCase("chunked");
+            }
+        }
+        if (chunked) {
+            for (long chunk = Long.parseLong(readLine(in).trim(), 16); chunk > 0;
+                    chunk = Long.parseLong(readLine(in).trim(), 16)) {
+                skip(in, chunk);
+                readLine(in);
+            }
+            readLine(in);
+        } else {
+            skip(in, length);
+        }
+        return status;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c = in.read(); c != '\n'; c = in.read()) {
+            if (c < 0) {
+                throw new IOException("connection closed");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("connection closed");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+}